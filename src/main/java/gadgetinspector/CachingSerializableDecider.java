@@ -0,0 +1,141 @@
+package gadgetinspector;
+
+import gadgetinspector.data.ClassReference;
+import gadgetinspector.data.DataFactory;
+import gadgetinspector.data.DataLoader;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * 线程安全的决策缓存，同一种fuzz类型的决策结果在passthrough、callgraph、source、gadgetchain各阶段之间共享
+ *
+ * classes.dat中的类优先查询预先计算的{@link SerializableBitmap}，其余的类（例：数组、未扫描到的类）
+ * 在第一次未命中缓存时才创建实际的决策者，决策结果可以和其它dat文件一起保存
+ */
+public class CachingSerializableDecider implements SerializableDecider {
+
+    //fuzz类型 -> {类 -> 是否通过决策}
+    private static final Map<String, Map<ClassReference.Handle, Boolean>> DECISIONS = new ConcurrentHashMap<>();
+    //fuzz类型 -> classes.dat中所有类的决策结果
+    private static final Map<String, SerializableBitmap> BITMAPS = new ConcurrentHashMap<>();
+
+    private final SerializableBitmap bitmap;
+    private final Map<ClassReference.Handle, Boolean> decisions;
+    private final Supplier<SerializableDecider> deciderSupplier;
+    private volatile SerializableDecider decider;
+
+    private CachingSerializableDecider(SerializableBitmap bitmap, Map<ClassReference.Handle, Boolean> decisions,
+                                       Supplier<SerializableDecider> deciderSupplier) {
+        this.bitmap = bitmap;
+        this.decisions = decisions;
+        this.deciderSupplier = deciderSupplier;
+    }
+
+    /**
+     * @param configName      fuzz类型，同一类型共享决策结果
+     * @param deciderSupplier 实际的决策者
+     */
+    public static SerializableDecider wrap(String configName, Supplier<SerializableDecider> deciderSupplier) {
+        return new CachingSerializableDecider(BITMAPS.get(configName),
+            DECISIONS.computeIfAbsent(configName, k -> new ConcurrentHashMap<>()), deciderSupplier);
+    }
+
+    @Override
+    public Boolean apply(ClassReference.Handle handle) {
+        if (bitmap != null) {
+            Boolean serializable = bitmap.get(handle);
+            if (serializable != null) {
+                return serializable;
+            }
+        }
+        Boolean cached = decisions.get(handle);
+        if (cached != null) {
+            return cached;
+        }
+        //不在computeIfAbsent中决策，避免决策期间阻塞其它线程
+        Boolean result = getDecider().apply(handle);
+        Boolean previous = decisions.putIfAbsent(handle, result);
+        return previous != null ? previous : result;
+    }
+
+    private SerializableDecider getDecider() {
+        SerializableDecider result = decider;
+        if (result == null) {
+            synchronized (this) {
+                result = decider;
+                if (result == null) {
+                    result = deciderSupplier.get();
+                    decider = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 设置fuzz类型的预计算结果，之后创建的决策者才会使用
+     */
+    public static void setBitmap(String configName, SerializableBitmap bitmap) {
+        BITMAPS.put(configName, bitmap);
+        //计算bitmap时产生的classes.dat中的类的决策结果已经包含在bitmap中
+        Map<ClassReference.Handle, Boolean> decisions = DECISIONS.get(configName);
+        if (decisions != null) {
+            decisions.keySet().removeIf(clazz -> bitmap.get(clazz) != null);
+        }
+    }
+
+    /**
+     * 清空所有决策结果，重新分析新的数据前需要调用
+     */
+    public static void clear() {
+        DECISIONS.clear();
+        BITMAPS.clear();
+    }
+
+    public static void load(Path filePath) throws IOException {
+        for (Decision decision : DataLoader.loadData(filePath, new DecisionFactory())) {
+            DECISIONS.computeIfAbsent(decision.configName, k -> new ConcurrentHashMap<>())
+                .put(decision.clazz, decision.serializable);
+        }
+    }
+
+    public static void save(Path filePath) throws IOException {
+        List<Decision> values = new ArrayList<>();
+        for (Map.Entry<String, Map<ClassReference.Handle, Boolean>> config : DECISIONS.entrySet()) {
+            for (Map.Entry<ClassReference.Handle, Boolean> entry : config.getValue().entrySet()) {
+                values.add(new Decision(config.getKey(), entry.getKey(), entry.getValue()));
+            }
+        }
+        DataLoader.saveData(filePath, new DecisionFactory(), values);
+    }
+
+    private static class Decision {
+        private final String configName;
+        private final ClassReference.Handle clazz;
+        private final Boolean serializable;
+
+        private Decision(String configName, ClassReference.Handle clazz, Boolean serializable) {
+            this.configName = configName;
+            this.clazz = clazz;
+            this.serializable = serializable;
+        }
+    }
+
+    private static class DecisionFactory implements DataFactory<Decision> {
+
+        @Override
+        public Decision parse(String[] fields) {
+            return new Decision(fields[0], new ClassReference.Handle(fields[1]), Boolean.valueOf(fields[2]));
+        }
+
+        @Override
+        public String[] serialize(Decision obj) {
+            return new String[]{obj.configName, obj.clazz.getName(), obj.serializable.toString()};
+        }
+    }
+}
@@ -1,11 +1,12 @@
 package gadgetinspector;
 
+import com.google.common.io.ByteStreams;
 import gadgetinspector.config.GIConfig;
 import gadgetinspector.config.JavaDeserializationConfig;
 import gadgetinspector.data.*;
+import java.util.Collection;
 import java.util.Collections;
 import org.objectweb.asm.*;
-import org.objectweb.asm.commons.JSRInlinerAdapter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -20,8 +21,24 @@ public class CallGraphDiscovery {
     private static final Logger LOGGER = LoggerFactory.getLogger(CallGraphDiscovery.class);
 
     private final Set<GraphCall> discoveredCalls = new HashSet<>();
+    //预加载的调用关系（例：jdk bundle）
+    private final Set<GraphCall> preloadedCalls = new HashSet<>();
+    //当前分析的类中发现的调用关系和被调用方法，用于摘要缓存
+    private Set<GraphCall> classCalls;
+    private Set<MethodReference.Handle> classCallees;
+    //--taintFixedPoint时达到基本块分析次数上限的方法数
+    private int visitLimitHits;
+    private GIConfig config;
+
+    /**
+     * 预加载已分析好的调用关系（例：jdk bundle）
+     */
+    public void preload(Collection<GraphCall> calls) {
+        preloadedCalls.addAll(calls);
+    }
 
     public void discover(final ClassResourceEnumerator classResourceEnumerator, GIConfig config) throws IOException {
+        this.config = config;
         //加载所有方法信息
         Map<MethodReference.Handle, MethodReference> methodMap = DataLoader.loadMethods();
         //加载所有类信息
@@ -29,42 +46,83 @@ public class CallGraphDiscovery {
         //加载所有父子类、超类、实现类关系
         InheritanceMap inheritanceMap = InheritanceMap.load();
         //加载所有方法参数和返回值的污染关联
-        Map<MethodReference.Handle, Set<Integer>> passthroughDataflow = ConfigHelper.taintTrack ? PassthroughDiscovery.load() : Collections.EMPTY_MAP;
+        Map<MethodReference.Handle, Set<Integer>> passthroughDataflow = ConfigHelper.taintTrack ? PassthroughDiscovery.load(config) : Collections.EMPTY_MAP;
 
         SerializableDecider serializableDecider = config.getSerializableDecider(methodMap, inheritanceMap);
+        //字段修饰符索引，用于判断字段是否为transient
+        FieldModifierMap fieldModifierMap = FieldModifierMap.derive(classMap);
+
+        SummaryCache summaryCache = ConfigHelper.summaryCache ? PassthroughDiscovery.loadSummaryCache(config) : null;
+        SummaryClassHasher classHasher = summaryCache == null ? null
+                : new SummaryClassHasher(fieldModifierMap, inheritanceMap, serializableDecider);
 
+        Set<String> scannedClasses = new HashSet<>();
         for (ClassResourceEnumerator.ClassResource classResource : classResourceEnumerator.getAllClasses()) {
             try (InputStream in = classResource.getInputStream()) {
-                ClassReader cr = new ClassReader(in);
+                byte[] bytes = ByteStreams.toByteArray(in);
+                ClassReader cr = new ClassReader(bytes);
+                scannedClasses.add(cr.getClassName());
+                //字节码、读取的类外信息和被调用方法的passthrough都没有变化时，直接使用缓存的调用关系
+                String classHash = null;
+                if (summaryCache != null) {
+                    classHash = classHasher.hash(bytes);
+                    Set<GraphCall> cached = summaryCache.getCallGraph(classHash, passthroughDataflow);
+                    if (cached != null) {
+                        discoveredCalls.addAll(cached);
+                        continue;
+                    }
+                }
+                classCalls = new HashSet<>();
+                classCallees = new HashSet<>();
                 try {
-                    cr.accept(new ModelGeneratorClassVisitor(classMap, inheritanceMap, passthroughDataflow, serializableDecider, Opcodes.ASM6),
+                    cr.accept(new ModelGeneratorClassVisitor(fieldModifierMap, inheritanceMap, passthroughDataflow, serializableDecider, Opcodes.ASM6),
                             ClassReader.EXPAND_FRAMES);
+                    if (summaryCache != null) {
+                        summaryCache.putCallGraph(classHash, classCallees, classCalls, passthroughDataflow);
+                    }
                 } catch (Exception e) {
                     LOGGER.error("Error analyzing: " + classResource.getName(), e);
                 }
+                discoveredCalls.addAll(classCalls);
             } catch (Exception e) {
                 e.printStackTrace();
             }
         }
+
+        if (ConfigHelper.taintFixedPoint) {
+            LOGGER.info("Call graph fixed point hit the block visit limit in " + visitLimitHits + " methods");
+        }
+
+        //应用中存在同名类时以应用的分析结果为准
+        for (GraphCall call : preloadedCalls) {
+            if (!scannedClasses.contains(call.getCallerMethod().getClassReference().getName())) {
+                discoveredCalls.add(call);
+            }
+        }
+
+        if (summaryCache != null) {
+            LOGGER.info("Call graph summary cache hits " + summaryCache.getHits() + ", misses " + summaryCache.getMisses());
+            summaryCache.save();
+        }
     }
 
     public void save() throws IOException {
-        DataLoader.saveData(Paths.get("callgraph.dat"), new GraphCall.Factory(), discoveredCalls);
+        DataLoader.saveData(config.getDataPath("callgraph.dat"), new GraphCall.Factory(), discoveredCalls);
     }
 
     private class ModelGeneratorClassVisitor extends ClassVisitor {
 
-        private final Map<ClassReference.Handle, ClassReference> classMap;
+        private final FieldModifierMap fieldModifierMap;
         private final InheritanceMap inheritanceMap;
         private final Map<MethodReference.Handle, Set<Integer>> passthroughDataflow;
         private final SerializableDecider serializableDecider;
 
-        public ModelGeneratorClassVisitor(Map<ClassReference.Handle, ClassReference> classMap,
+        public ModelGeneratorClassVisitor(FieldModifierMap fieldModifierMap,
                                           InheritanceMap inheritanceMap,
                                           Map<MethodReference.Handle, Set<Integer>> passthroughDataflow,
                                           SerializableDecider serializableDecider, int api) {
             super(api);
-            this.classMap = classMap;
+            this.fieldModifierMap = fieldModifierMap;
             this.inheritanceMap = inheritanceMap;
             this.passthroughDataflow = passthroughDataflow;
             this.serializableDecider = serializableDecider;
@@ -89,10 +147,10 @@ public class CallGraphDiscovery {
         public MethodVisitor visitMethod(int access, String name, String desc,
                                          String signature, String[] exceptions) {
             MethodVisitor mv = super.visitMethod(access, name, desc, signature, exceptions);
-            ModelGeneratorMethodVisitor modelGeneratorMethodVisitor = new ModelGeneratorMethodVisitor(classMap,
+            ModelGeneratorMethodVisitor modelGeneratorMethodVisitor = new ModelGeneratorMethodVisitor(fieldModifierMap,
                     inheritanceMap, passthroughDataflow, serializableDecider, api, mv, this.name, access, name, desc, signature, exceptions);
 
-            return new JSRInlinerAdapter(modelGeneratorMethodVisitor, access, name, desc, signature, exceptions);
+            return TaintTrackingMethodVisitor.adapt(modelGeneratorMethodVisitor, access, name, desc, signature, exceptions);
         }
 
         @Override
@@ -115,7 +173,7 @@ public class CallGraphDiscovery {
 
     private class ModelGeneratorMethodVisitor extends TaintTrackingMethodVisitor<String> {
 
-        private final Map<ClassReference.Handle, ClassReference> classMap;
+        private final FieldModifierMap fieldModifierMap;
         private final InheritanceMap inheritanceMap;
         private final SerializableDecider serializableDecider;
         private final String owner;
@@ -123,14 +181,14 @@ public class CallGraphDiscovery {
         private final String name;
         private final String desc;
 
-        public ModelGeneratorMethodVisitor(Map<ClassReference.Handle, ClassReference> classMap,
+        public ModelGeneratorMethodVisitor(FieldModifierMap fieldModifierMap,
                                            InheritanceMap inheritanceMap,
                                            Map<MethodReference.Handle, Set<Integer>> passthroughDataflow,
                                            SerializableDecider serializableDecider, final int api, final MethodVisitor mv,
                                            final String owner, int access, String name, String desc, String signature,
                                            String[] exceptions) {
             super(inheritanceMap, passthroughDataflow, api, mv, owner, access, name, desc, signature, exceptions);
-            this.classMap = classMap;
+            this.fieldModifierMap = fieldModifierMap;
             this.inheritanceMap = inheritanceMap;
             this.serializableDecider = serializableDecider;
             this.owner = owner;
@@ -139,6 +197,14 @@ public class CallGraphDiscovery {
             this.desc = desc;
         }
 
+        @Override
+        public void visitEnd() {
+            super.visitEnd();
+            if (hitVisitLimit()) {
+                visitLimitHits++;
+            }
+        }
+
         @Override
         public void visitCode() {
             super.visitCode();
@@ -175,19 +241,7 @@ public class CallGraphDiscovery {
                         if (!couldBeSerialized(serializableDecider, inheritanceMap, new ClassReference.Handle(type.getInternalName()))) {
                             isTransient = Boolean.TRUE;
                         } else {
-                            ClassReference clazz = classMap.get(new ClassReference.Handle(owner));
-                            while (clazz != null) {
-                                for (ClassReference.Member member : clazz.getMembers()) {
-                                    if (member.getName().equals(name)) {
-                                        isTransient = (member.getModifiers() & Opcodes.ACC_TRANSIENT) != 0;
-                                        break;
-                                    }
-                                }
-                                if (isTransient != null) {
-                                    break;
-                                }
-                                clazz = classMap.get(new ClassReference.Handle(clazz.getSuperClass()));
-                            }
+                            isTransient = fieldModifierMap.isTransient(new ClassReference.Handle(owner), name);
                         }
 
                         Set<String> newTaint = new HashSet<>();
@@ -213,6 +267,7 @@ public class CallGraphDiscovery {
 
         @Override
         public void visitMethodInsn(int opcode, String owner, String name, String desc, boolean itf) {
+            classCallees.add(new MethodReference.Handle(new ClassReference.Handle(owner), name, desc));
             //获取被调用method的参数和类型，非静态方法需要把实例类型放在第一个元素
             Type[] argTypes = Type.getArgumentTypes(desc);
             if (opcode != Opcodes.INVOKESTATIC) {
@@ -229,7 +284,7 @@ public class CallGraphDiscovery {
                 case Opcodes.INVOKEINTERFACE:
                     if (!ConfigHelper.taintTrack) {
                         //不进行污点分析，全部调用关系都记录
-                        discoveredCalls.add(new GraphCall(
+                        classCalls.add(new GraphCall(
                             new MethodReference.Handle(new ClassReference.Handle(this.owner), this.name, this.desc),
                             new MethodReference.Handle(new ClassReference.Handle(owner), name, desc),
                             0,
@@ -262,7 +317,7 @@ public class CallGraphDiscovery {
                                 }
                                 //记录参数流动关系
                                 //argIndex：当前方法参数索引，srcArgIndex：对应上一级方法的参数索引
-                                discoveredCalls.add(new GraphCall(
+                                classCalls.add(new GraphCall(
                                         new MethodReference.Handle(new ClassReference.Handle(this.owner), this.name, this.desc),
                                         new MethodReference.Handle(new ClassReference.Handle(owner), name, desc),
                                         srcArgIndex,
@@ -283,10 +338,8 @@ public class CallGraphDiscovery {
     }
 
     public static void main(String[] args) throws Exception {
-        ClassLoader classLoader = Util.getWarClassLoader(Paths.get(args[0]));
-
         CallGraphDiscovery callGraphDiscovery = new CallGraphDiscovery();
-        callGraphDiscovery.discover(new ClassResourceEnumerator(classLoader), new JavaDeserializationConfig());
+        callGraphDiscovery.discover(NestedJarClassResourceEnumerator.war(Paths.get(args[0])), new JavaDeserializationConfig());
         callGraphDiscovery.save();
     }
 }
@@ -2,23 +2,39 @@ package gadgetinspector;
 
 import com.google.common.reflect.ClassPath;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.net.*;
 import java.nio.file.*;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import javax.crypto.Cipher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class ClassResourceEnumerator implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ClassResourceEnumerator.class);
 
-public class ClassResourceEnumerator {
     private final ClassLoader classLoader;
 
     public ClassResourceEnumerator(ClassLoader classLoader) throws IOException {
         this.classLoader = classLoader;
     }
 
+    protected ClassResourceEnumerator() {
+        this.classLoader = null;
+    }
+
     /**
-     * java runtime所有的class（rt.jar）和指定的jar或war中的所有class
+     * 指定的jar或war中的所有class，--onlyJDK时为java runtime所有的class（rt.jar或jrt:/）
      *
      * @return
      * @throws IOException
@@ -26,7 +42,7 @@ public class ClassResourceEnumerator {
     public Collection<ClassResource> getAllClasses() throws IOException {
         Collection<ClassResource> result = new ArrayList<>();
         if (ConfigHelper.onlyJDK)
-            return result;
+            return getRuntimeClasses();
         for (ClassPath.ClassInfo classInfo : ClassPath.from(classLoader).getAllClasses()) {
 //            if (classInfo.getPackageName().equals("com.example.gadgetinspectortest")){
             result.add(new ClassLoaderClassResource(classLoader, classInfo.getResourceName()));
@@ -68,11 +84,7 @@ public class ClassResourceEnumerator {
         // Try finding all the JDK classes using the Java9+ modules method:
         try {
             FileSystem fs = FileSystems.getFileSystem(URI.create("jrt:/"));
-            Files.walk(fs.getPath("/")).forEach(p -> {
-                if (p.toString().toLowerCase().endsWith(".class")) {
-                    result.add(new PathClassResource(p));
-                }
-            });
+            result.addAll(getModuleClasses(fs));
         } catch (ProviderNotFoundException e) {
             // Do nothing; this is expected on versions below Java9
         }
@@ -80,6 +92,59 @@ public class ClassResourceEnumerator {
         return result;
     }
 
+    /**
+     * java9+：读取jrt:/modules下--jdkModules指定的模块（未指定时为所有模块），每个模块并行遍历
+     */
+    private Collection<ClassResource> getModuleClasses(FileSystem fs) throws IOException {
+        List<Path> modules = new ArrayList<>();
+        Set<String> found = new HashSet<>();
+        try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(fs.getPath("/modules"))) {
+            for (Path module : directoryStream) {
+                String name = module.getFileName().toString();
+                if (ConfigHelper.jdkModules.isEmpty() || ConfigHelper.jdkModules.contains(name)) {
+                    modules.add(module);
+                    found.add(name);
+                }
+            }
+        }
+        for (String name : ConfigHelper.jdkModules) {
+            if (!found.contains(name)) {
+                LOGGER.warn("Jdk module not found in runtime image: " + name);
+            }
+        }
+
+        List<List<ClassResource>> moduleClasses;
+        try {
+            moduleClasses = modules.parallelStream().map(module -> {
+                List<ClassResource> classes = new ArrayList<>();
+                try (Stream<Path> paths = Files.walk(module)) {
+                    paths.forEach(p -> {
+                        if (p.toString().toLowerCase().endsWith(".class") && !p.getFileName().toString().equals("module-info.class")) {
+                            classes.add(new PathClassResource(p));
+                        }
+                    });
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return classes;
+            }).collect(Collectors.toList());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        Collection<ClassResource> result = new ArrayList<>();
+        moduleClasses.forEach(result::addAll);
+        LOGGER.info("Found " + result.size() + " classes in " + modules.size() + " jdk modules");
+        return result;
+    }
+
+    /**
+     * 释放打开的jar，之后不能再读取class
+     */
+    @Override
+    public void close() throws IOException {
+    }
+
     public static interface ClassResource {
         public InputStream getInputStream() throws IOException;
         public String getName();
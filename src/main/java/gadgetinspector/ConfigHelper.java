@@ -2,6 +2,7 @@ package gadgetinspector;
 
 import gadgetinspector.config.GIConfig;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Set;
 
 /**
@@ -10,10 +11,16 @@ import java.util.Set;
 public class ConfigHelper {
 
   public static GIConfig giConfig;
+  //--config指定了多种fuzz类型
+  public static boolean multiConfig = false;
 
   public static String mybatisMapperXMLPath;
 
   public static boolean taintTrack = true;
+  public static boolean taintFixedPoint = false;
+
+  public static boolean summaryCache = false;
+  public static String summaryCacheDir = "cache/";
 
   public static int opLevel = 0;
 
@@ -23,6 +30,10 @@ public class ConfigHelper {
   public static int maxJarCount = Integer.MAX_VALUE;
 
   public static boolean onlyJDK = false;
+  public static boolean buildJdkBundle = false;
+  public static String jdkBundle = "";
+  //--onlyJDK扫描的jdk模块（java9+），为空时扫描所有模块
+  public static Set<String> jdkModules = new LinkedHashSet<>();
 
   public static int maxChainLength = Integer.MAX_VALUE;
 
@@ -33,10 +44,23 @@ public class ConfigHelper {
   public static String crawMavenJarPath = "/tmp";
   public static boolean onlyCrawMaven = false;
   public static boolean onlyCrawNexus = false;
+  //爬虫使用的maven仓库、代理（host:port，direct表示直连）、每个host的最大连接数、每秒最多请求的url数量
+  public static String crawMavenRepo = "https://repo1.maven.org/maven2/";
+  public static String crawProxy = "127.0.0.1:7890";
+  public static int crawMaxPerHost = 8;
+  public static double crawRate = 20;
+  //本地maven仓库镜像目录，按其中的maven-metadata.xml列出jar，代替爬取html目录
+  public static String crawMavenIndex = null;
+  //--craw时只分析新增的jar，沿用上一轮的分析结果
+  public static boolean incremental = false;
+  //--watch监听扫描目录，新jar到达后等待的秒数
+  public static boolean watch = false;
+  public static int watchDebounceSec = 3;
 
   public static Set<String> slinks = new HashSet<>();
 
   public static String skipSourcesFile = "";
   public static String slinksFile = "";
+  public static String rulesFile = "";
   public static Boolean isSave = false;
 }
@@ -0,0 +1,262 @@
+package gadgetinspector;
+
+import com.google.common.util.concurrent.RateLimiter;
+import gadgetinspector.data.DataFactory;
+import gadgetinspector.data.DataLoader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 爬虫的待爬取队列（frontier），保存在磁盘上，程序重启后从中断的位置继续
+ *
+ * 文件每行一条记录（状态、url、已失败次数），只追加，同一url以最后一条为准，打开时压缩；
+ * 所有出现过的url都记录在内存中（已访问集合），同一url只爬取一次。
+ * 待爬取的url后进先出（深度优先，队列不会过大），失败的url按1、2、4...秒退避后重试，请求频率由RateLimiter限制
+ */
+public class CrawlFrontier implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CrawlFrontier.class);
+
+    private static final int MAX_ATTEMPTS = 5;
+    private static final long BACKOFF_MILLIS = 1000L;
+    private static final long MAX_BACKOFF_MILLIS = 60 * 1000L;
+
+    public enum State {
+        PENDING, DONE, FAILED
+    }
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    //待爬取的url，由this保护
+    private final Deque<String> pending = new ArrayDeque<>();
+    //等待重试的url
+    private final DelayQueue<Retry> retries = new DelayQueue<>();
+    //已取出、尚未完成的url数量，由this保护
+    private int inFlight;
+    private final RateLimiter rateLimiter;
+    private final Writer log;
+
+    private CrawlFrontier(Path path, double permitsPerSecond) throws IOException {
+        rateLimiter = RateLimiter.create(permitsPerSecond);
+        Map<String, Entry> records = new LinkedHashMap<>();
+        for (Entry entry : DataLoader.loadData(path, new Entry.Factory())) {
+            //中断时最后一行可能不完整
+            if (entry == null) {
+                continue;
+            }
+            records.remove(entry.url);
+            records.put(entry.url, entry);
+        }
+        for (Entry entry : records.values()) {
+            entries.put(entry.url, entry);
+            //后加入的先爬取，与中断前的顺序一致
+            if (entry.state == State.PENDING) {
+                pending.addFirst(entry.url);
+            }
+        }
+        //压缩：每个url只保留最后的状态
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Path tmpPath = path.resolveSibling(path.getFileName() + ".tmp");
+        DataLoader.saveData(tmpPath, new Entry.Factory(), records.values());
+        Files.move(tmpPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log = Files.newBufferedWriter(path, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+        if (!records.isEmpty()) {
+            LOGGER.info("Resuming crawl frontier " + path + ": " + pending.size() + " pending, "
+                + (records.size() - pending.size()) + " visited");
+        }
+    }
+
+    /**
+     * @param permitsPerSecond 每秒最多取出的url数量
+     */
+    public static CrawlFrontier open(Path path, double permitsPerSecond) throws IOException {
+        return new CrawlFrontier(path, permitsPerSecond);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * 加入待爬取的url，靠前的先爬取
+     *
+     * @return 新加入的url数量，已访问过的不再加入
+     */
+    public int addAll(List<String> urls) throws IOException {
+        List<String> added = new ArrayList<>(urls.size());
+        for (String url : urls) {
+            Entry entry = new Entry(State.PENDING, url, 0);
+            if (entries.putIfAbsent(url, entry) == null) {
+                added.add(url);
+                append(entry);
+            }
+        }
+        synchronized (this) {
+            for (int i = added.size() - 1; i >= 0; i--) {
+                pending.addFirst(added.get(i));
+            }
+            notifyAll();
+        }
+        return added.size();
+    }
+
+    /**
+     * 标记为已访问，不需要爬取（例：旧版本记录的已爬取目录）
+     */
+    public void markDone(String url) throws IOException {
+        Entry entry = new Entry(State.DONE, url, 0);
+        if (entries.putIfAbsent(url, entry) == null) {
+            append(entry);
+        }
+    }
+
+    /**
+     * 取出下一个url，没有可爬取的url但还有未完成的url（可能加入新的url、重试）时等待
+     *
+     * @return 全部完成时返回null
+     */
+    public String take() throws InterruptedException {
+        String url;
+        synchronized (this) {
+            while (true) {
+                Retry retry = retries.poll();
+                if (retry != null) {
+                    url = retry.url;
+                    break;
+                }
+                if (!pending.isEmpty()) {
+                    url = pending.pollFirst();
+                    break;
+                }
+                if (inFlight == 0 && retries.isEmpty()) {
+                    return null;
+                }
+                Retry next = retries.peek();
+                wait(next == null ? 1000L : Math.max(1L, Math.min(1000L, next.getDelay(TimeUnit.MILLISECONDS))));
+            }
+            inFlight++;
+        }
+        rateLimiter.acquire();
+        return url;
+    }
+
+    public void done(String url) throws IOException {
+        complete(new Entry(State.DONE, url, entries.get(url).attempts), null);
+    }
+
+    /**
+     * @param retryable 是否重试（例：连接失败、5xx），失败MAX_ATTEMPTS次后不再重试
+     */
+    public void failed(String url, boolean retryable) throws IOException {
+        int attempts = entries.get(url).attempts + 1;
+        if (!retryable || attempts >= MAX_ATTEMPTS) {
+            LOGGER.error("craw " + url + " failed after " + attempts + " attempts");
+            complete(new Entry(State.FAILED, url, attempts), null);
+            return;
+        }
+        long backoff = Math.min(MAX_BACKOFF_MILLIS, BACKOFF_MILLIS << (attempts - 1));
+        LOGGER.warn("craw " + url + " failed, retry in " + backoff + "ms");
+        complete(new Entry(State.PENDING, url, attempts), new Retry(url, System.currentTimeMillis() + backoff));
+    }
+
+    private void complete(Entry entry, Retry retry) throws IOException {
+        entries.put(entry.url, entry);
+        try {
+            append(entry);
+        } finally {
+            //写文件失败也要释放，否则take()一直等待
+            synchronized (this) {
+                if (retry != null) {
+                    retries.add(retry);
+                }
+                inFlight--;
+                notifyAll();
+            }
+        }
+    }
+
+    private void append(Entry entry) throws IOException {
+        synchronized (log) {
+            String[] fields = new Entry.Factory().serialize(entry);
+            log.write(String.join("\t", fields));
+            log.write("\n");
+            log.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (log) {
+            log.close();
+        }
+    }
+
+    private static class Entry {
+        private final State state;
+        private final String url;
+        private final int attempts;
+
+        private Entry(State state, String url, int attempts) {
+            this.state = state;
+            this.url = url;
+            this.attempts = attempts;
+        }
+
+        private static class Factory implements DataFactory<Entry> {
+
+            @Override
+            public Entry parse(String[] fields) {
+                try {
+                    return new Entry(State.valueOf(fields[0]), fields[1], Integer.parseInt(fields[2]));
+                } catch (RuntimeException e) {
+                    return null;
+                }
+            }
+
+            @Override
+            public String[] serialize(Entry obj) {
+                return new String[]{obj.state.name(), obj.url, Integer.toString(obj.attempts)};
+            }
+        }
+    }
+
+    private static class Retry implements Delayed {
+        private final String url;
+        private final long time;
+
+        private Retry(String url, long time) {
+            this.url = url;
+            this.time = time;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(time - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed o) {
+            return Long.compare(time, ((Retry) o).time);
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package gadgetinspector;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import javax.net.ssl.SSLContext;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.client.methods.HttpAsyncMethods;
+import org.apache.http.nio.client.methods.ZeroCopyConsumer;
+import org.apache.http.nio.conn.NoopIOSessionStrategy;
+import org.apache.http.nio.conn.SchemeIOSessionStrategy;
+import org.apache.http.nio.conn.ssl.SSLIOSessionStrategy;
+import org.apache.http.nio.protocol.BasicAsyncResponseConsumer;
+import org.apache.http.ssl.SSLContextBuilder;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 爬虫共用的http客户端（MavenCrawer、MavenCrawerPopular）
+ *
+ * 基于httpasyncclient，所有请求共用一个连接池（keep-alive，每个host最多--crawMaxPerHost个连接），
+ * jar下载不占用线程，响应内容直接写入磁盘（先写到.part文件，完成后再改名，扫描目录中不会出现下载中的jar）
+ */
+public class CrawlerHttpClient implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CrawlerHttpClient.class);
+
+    private static final int TIMEOUT = 60000;
+
+    private static CrawlerHttpClient instance;
+
+    /**
+     * jar下载结果
+     */
+    public enum DownloadStatus {
+        //下载完成（或已存在）
+        DONE,
+        //不存在（404、410），不需要重试
+        NOT_FOUND,
+        //其他状态码、连接失败等，可以重试
+        FAILED
+    }
+
+    private final CloseableHttpAsyncClient httpClient;
+    //同时进行的下载数量，超过时提交下载的爬虫线程等待
+    private final Semaphore downloads;
+
+    /**
+     * @param proxy 代理，null表示直连
+     * @param maxPerHost 每个host的最大连接数
+     */
+    public CrawlerHttpClient(HttpHost proxy, int maxPerHost) throws IOException {
+        SSLContext sslContext;
+        try {
+            // 信任所有
+            sslContext = new SSLContextBuilder()
+                .loadTrustMaterial(null, (X509Certificate[] chain, String authType) -> true).build();
+        } catch (Exception e) {
+            throw new IOException("Error creating ssl context", e);
+        }
+        PoolingNHttpClientConnectionManager connectionManager = new PoolingNHttpClientConnectionManager(
+            new DefaultConnectingIOReactor(IOReactorConfig.custom()
+                .setIoThreadCount(Runtime.getRuntime().availableProcessors())
+                .setConnectTimeout(TIMEOUT)
+                .setSoTimeout(TIMEOUT)
+                .build()),
+            RegistryBuilder.<SchemeIOSessionStrategy>create()
+                .register("http", NoopIOSessionStrategy.INSTANCE)
+                .register("https", new SSLIOSessionStrategy(sslContext))
+                .build());
+        connectionManager.setDefaultMaxPerRoute(maxPerHost);
+        connectionManager.setMaxTotal(maxPerHost * 4);
+
+        //等待连接池的时间不限制，同时进行的下载数量由downloads控制
+        RequestConfig requestConfig = RequestConfig.custom()
+            .setConnectTimeout(TIMEOUT)
+            .setSocketTimeout(TIMEOUT)
+            .setConnectionRequestTimeout(0)
+            .setRedirectsEnabled(false)
+            .build();
+        httpClient = HttpAsyncClients.custom()
+            .setConnectionManager(connectionManager)
+            .setDefaultRequestConfig(requestConfig)
+            .setProxy(proxy)
+            .disableCookieManagement()
+            .build();
+        httpClient.start();
+        downloads = new Semaphore(maxPerHost);
+    }
+
+    /**
+     * 按--crawProxy、--crawMaxPerHost创建的共用实例
+     */
+    public static synchronized CrawlerHttpClient getInstance() throws IOException {
+        if (instance == null) {
+            instance = new CrawlerHttpClient(parseProxy(ConfigHelper.crawProxy), ConfigHelper.crawMaxPerHost);
+        }
+        return instance;
+    }
+
+    /**
+     * @param proxy host:port，为空或direct时直连
+     */
+    static HttpHost parseProxy(String proxy) {
+        if (proxy == null || proxy.isEmpty() || proxy.equals("direct")) {
+            return null;
+        }
+        int index = proxy.lastIndexOf(':');
+        if (index < 0) {
+            throw new IllegalArgumentException("Invalid proxy, expected host:port: " + proxy);
+        }
+        return new HttpHost(proxy.substring(0, index), Integer.parseInt(proxy.substring(index + 1)));
+    }
+
+    /**
+     * 请求页面内容（阻塞）
+     *
+     * @return 页面不存在（404、410）时返回null，其他状态码不是200时抛出IOException（可以重试）
+     */
+    public String getString(String url) throws IOException {
+        HttpResponse response;
+        try {
+            response = httpClient.execute(HttpAsyncMethods.createGet(url), new BasicAsyncResponseConsumer(), null)
+                .get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted requesting " + url);
+        } catch (ExecutionException e) {
+            throw new IOException("Error requesting " + url, e.getCause());
+        }
+        int status = response.getStatusLine().getStatusCode();
+        if (status != 200) {
+            EntityUtils.consumeQuietly(response.getEntity());
+            if (status == 404 || status == 410) {
+                return null;
+            }
+            throw new IOException("Error requesting " + url + ", status " + status);
+        }
+        return EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 异步下载到target，target已存在时不下载；同时进行的下载达到上限时阻塞等待
+     *
+     * @return 下载结果，与getString一致，404、410为NOT_FOUND，其他状态码不是200或失败时为FAILED
+     */
+    public CompletableFuture<DownloadStatus> download(String url, Path target) throws InterruptedException {
+        CompletableFuture<DownloadStatus> result = new CompletableFuture<>();
+        if (Files.exists(target)) {
+            result.complete(DownloadStatus.DONE);
+            return result;
+        }
+        Path partPath = target.resolveSibling(target.getFileName() + ".part");
+        ZeroCopyConsumer<DownloadStatus> consumer;
+        try {
+            consumer = new ZeroCopyConsumer<DownloadStatus>(partPath.toFile()) {
+                @Override
+                protected DownloadStatus process(HttpResponse response, File file, ContentType contentType)
+                    throws Exception {
+                    int status = response.getStatusLine().getStatusCode();
+                    if (status == 200) {
+                        return DownloadStatus.DONE;
+                    }
+                    LOGGER.error("download jar:" + url + " fail, status " + status);
+                    return status == 404 || status == 410 ? DownloadStatus.NOT_FOUND : DownloadStatus.FAILED;
+                }
+            };
+        } catch (IOException e) {
+            LOGGER.error("download jar:" + url + " fail!", e);
+            result.complete(DownloadStatus.FAILED);
+            return result;
+        }
+
+        downloads.acquire();
+        result.whenComplete((success, e) -> downloads.release());
+        httpClient.execute(HttpAsyncMethods.createGet(url), consumer, new FutureCallback<DownloadStatus>() {
+            @Override
+            public void completed(DownloadStatus status) {
+                try {
+                    if (status == DownloadStatus.DONE) {
+                        Files.move(partPath, target, StandardCopyOption.ATOMIC_MOVE);
+                    } else {
+                        Files.deleteIfExists(partPath);
+                    }
+                    result.complete(status);
+                } catch (IOException e) {
+                    failed(e);
+                }
+            }
+
+            @Override
+            public void failed(Exception e) {
+                LOGGER.error("download jar:" + url + " fail!", e);
+                try {
+                    Files.deleteIfExists(partPath);
+                } catch (IOException ignored) {
+                }
+                result.complete(DownloadStatus.FAILED);
+            }
+
+            @Override
+            public void cancelled() {
+                failed(new IOException("Download cancelled"));
+            }
+        });
+        return result;
+    }
+
+    @Override
+    public void close() throws IOException {
+        httpClient.close();
+    }
+}
@@ -8,6 +8,7 @@ import gadgetinspector.data.DataLoader;
 import gadgetinspector.data.GraphCall;
 import gadgetinspector.data.InheritanceDeriver;
 import gadgetinspector.data.InheritanceMap;
+import gadgetinspector.data.LazyMethodImplMap;
 import gadgetinspector.data.MethodReference;
 import gadgetinspector.data.MethodReference.Handle;
 import gadgetinspector.data.SlinkReference;
@@ -46,6 +47,15 @@ public class GadgetChainDiscovery {
 
   private static List<CustomSlink> customSlinks = new ArrayList<>();
 
+  private MethodRuleMatcher slinkRuleMatcher;
+
+  //--incremental时只从能调用到新增代码的source开始搜索，null表示不过滤
+  private Set<MethodReference.Handle> sourceFilter;
+
+  public void setSourceFilter(Set<MethodReference.Handle> sourceFilter) {
+    this.sourceFilter = sourceFilter;
+  }
+
   static {
     if (!ConfigHelper.slinksFile.isEmpty()) {
       try(BufferedReader bufferedReader = Files.newBufferedReader(Paths.get(ConfigHelper.slinksFile))) {
@@ -73,39 +83,28 @@ public class GadgetChainDiscovery {
     }
   }
 
-  public void discover(List<Path> pathList) throws Exception {
+  /**
+   * @return 找到的chain数量
+   */
+  public int discover(List<Path> pathList) throws Exception {
     Map<MethodReference.Handle, MethodReference> methodMap = DataLoader.loadMethods();
     InheritanceMap inheritanceMap = InheritanceMap.load();
 
-    Map<MethodReference.Handle, Set<MethodReference.Handle>> methodImplMap = InheritanceDeriver.getAllMethodImplementations(inheritanceMap, methodMap);
+    //方法的实现在利用链搜索访问到时才计算
+    Map<MethodReference.Handle, Set<MethodReference.Handle>> methodImplMap = new LazyMethodImplMap(inheritanceMap, methodMap);
     Map<ClassReference.Handle, Set<MethodReference.Handle>> methodsByClass = InheritanceDeriver.getMethodsByClass(methodMap);
 
     final ImplementationFinder implementationFinder = config.getImplementationFinder(
         methodMap, methodImplMap, inheritanceMap, methodsByClass);
 
-    try (Writer writer = Files.newBufferedWriter(Paths.get("methodimpl.dat"))) {
-      for (Map.Entry<MethodReference.Handle, Set<MethodReference.Handle>> entry : methodImplMap
-          .entrySet()) {
-        writer.write(entry.getKey().getClassReference().getName());
-        writer.write("\t");
-        writer.write(entry.getKey().getName());
-        writer.write("\t");
-        writer.write(entry.getKey().getDesc());
-        writer.write("\n");
-        for (MethodReference.Handle method : entry.getValue()) {
-          writer.write("\t");
-          writer.write(method.getClassReference().getName());
-          writer.write("\t");
-          writer.write(method.getName());
-          writer.write("\t");
-          writer.write(method.getDesc());
-          writer.write("\n");
-        }
-      }
+    //--rulesFile中的slink规则
+    List<MethodRule> slinkRules = MethodRule.getRules(MethodRule.Type.SLINK, config);
+    if (!slinkRules.isEmpty()) {
+      slinkRuleMatcher = new MethodRuleMatcher(slinkRules, DataLoader.loadClasses(), inheritanceMap);
     }
 
     Map<MethodReference.Handle, Set<GraphCall>> graphCallMap = new HashMap<>();
-    for (GraphCall graphCall : DataLoader.loadData(Paths.get("callgraph.dat"), new GraphCall.Factory())) {
+    for (GraphCall graphCall : DataLoader.loadData(config.getDataPath("callgraph.dat"), new GraphCall.Factory())) {
       MethodReference.Handle caller = graphCall.getCallerMethod();
       if (!graphCallMap.containsKey(caller)) {
         Set<GraphCall> graphCalls = new HashSet<>();
@@ -119,7 +118,10 @@ public class GadgetChainDiscovery {
     Set<GadgetChainLink> exploredMethods = new HashSet<>();
     LinkedList<GadgetChain> methodsToExplore = new LinkedList<>();
     LinkedList<GadgetChain> methodsToExploreRepeat = new LinkedList<>();
-    for (Source source : DataLoader.loadData(Paths.get("sources.dat"), new Source.Factory())) {
+    for (Source source : DataLoader.loadData(config.getDataPath("sources.dat"), new Source.Factory())) {
+      if (sourceFilter != null && !sourceFilter.contains(source.getSourceMethod())) {
+        continue;
+      }
       GadgetChainLink srcLink = new GadgetChainLink(source.getSourceMethod(),
           source.getTaintedArgIndex());
       if (exploredMethods.contains(srcLink)) {
@@ -197,6 +199,28 @@ public class GadgetChainDiscovery {
       }
     }
 
+    //只保存搜索过程中计算过的部分
+    try (Writer writer = Files.newBufferedWriter(config.getDataPath("methodimpl.dat"))) {
+      for (Map.Entry<MethodReference.Handle, Set<MethodReference.Handle>> entry : methodImplMap
+          .entrySet()) {
+        writer.write(entry.getKey().getClassReference().getName());
+        writer.write("\t");
+        writer.write(entry.getKey().getName());
+        writer.write("\t");
+        writer.write(entry.getKey().getDesc());
+        writer.write("\n");
+        for (MethodReference.Handle method : entry.getValue()) {
+          writer.write("\t");
+          writer.write(method.getClassReference().getName());
+          writer.write("\t");
+          writer.write(method.getName());
+          writer.write("\t");
+          writer.write(method.getDesc());
+          writer.write("\n");
+        }
+      }
+    }
+
     //链聚合优化
     Set<GadgetChain> tmpDiscoveredGadgets = new HashSet<>();
     for (GadgetChain gadgetChain : methodsToExploreRepeat) {
@@ -222,7 +246,8 @@ public class GadgetChainDiscovery {
       SimpleDateFormat simpleDateFormat = new SimpleDateFormat("yyyy-MM-dd-HH-mm");
       try (OutputStream outputStream = Files
           .newOutputStream(
-              Paths.get("gadget-result/gadget-chains-" + simpleDateFormat.format(new Date())
+              Paths.get("gadget-result/gadget-chains-" + (ConfigHelper.multiConfig ? config.getName() + "-" : "")
+                  + simpleDateFormat.format(new Date())
                   + ".txt"));
           Writer writer = new OutputStreamWriter(outputStream, StandardCharsets.UTF_8)) {
         if (pathList != null) {
@@ -235,6 +260,7 @@ public class GadgetChainDiscovery {
     }
 
     LOGGER.info("Found {} gadget chains.", discoveredGadgets.size());
+    return discoveredGadgets.size();
   }
 
   private static void printGadgetChain(Writer writer, GadgetChain chain) throws IOException {
@@ -311,6 +337,9 @@ public class GadgetChainDiscovery {
   // TODO: Parameterize this as a configuration option
   private boolean isSink(MethodReference.Handle method, int argIndex,
       InheritanceMap inheritanceMap) {
+    if (slinkRuleMatcher != null && slinkRuleMatcher.isSlink(method, argIndex)) {
+      return true;
+    }
     if (!customSlinks.isEmpty()) {
       for (CustomSlink customSlink:customSlinks) {
         boolean flag = false;
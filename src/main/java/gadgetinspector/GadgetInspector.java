@@ -1,32 +1,35 @@
 package gadgetinspector;
 
+import com.google.common.hash.HashCode;
 import gadgetinspector.config.ConfigRepository;
 import gadgetinspector.config.GIConfig;
+import gadgetinspector.data.MethodReference;
+import gadgetinspector.data.ScanLedger;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.Writer;
-import java.net.URL;
-import java.net.URLClassLoader;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.SimpleFileVisitor;
-import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Scanner;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.stream.Collectors;
+import java.util.zip.ZipFile;
 import org.apache.log4j.ConsoleAppender;
 import org.apache.log4j.Level;
 import org.apache.log4j.PatternLayout;
@@ -77,7 +80,7 @@ public class GadgetInspector {
         //是否Spring-Boot jar项目
         boolean boot = false;
         //fuzz类型，默认java原生序列化
-        GIConfig config = ConfigRepository.getConfig("jserial");
+        List<GIConfig> configs = new ArrayList<>(Arrays.asList(ConfigRepository.getConfig("jserial")));
 
         int argIndex = 0;
         while (argIndex < args.length) {
@@ -89,12 +92,19 @@ public class GadgetInspector {
                 //不删除dat文件
                 resume = true;
             } else if (arg.equals("--config")) {
-                //--config参数指定fuzz类型
-                config = ConfigRepository.getConfig(args[++argIndex]);
-                if (config == null) {
-                    throw new IllegalArgumentException("Invalid config name: " + args[argIndex]);
+                //--config参数指定fuzz类型，多种类型用逗号分隔（例：jserial,jackson,fastjson），共用classes、methods、inheritanceMap，其余阶段并行执行
+                configs.clear();
+                for (String name : args[++argIndex].split(",")) {
+                    GIConfig config = ConfigRepository.getConfig(name.trim());
+                    if (config == null) {
+                        throw new IllegalArgumentException("Invalid config name: " + name);
+                    }
+                    if (!configs.contains(config)) {
+                        configs.add(config);
+                    }
                 }
-                ConfigHelper.giConfig = config;
+                ConfigHelper.giConfig = configs.get(0);
+                ConfigHelper.multiConfig = configs.size() > 1;
             } else if (arg.equals("--boot")) {
                 //指定为Spring-Boot jar项目
                 boot = true;
@@ -104,6 +114,12 @@ public class GadgetInspector {
             } else if (arg.equals("--noTaintTrack")) {
                 //是否污点分析，若不使用污点分析，将会把所有链都搜索出来，好处是不会遗漏，坏处是需要大量的人工审计
                 ConfigHelper.taintTrack = false;
+            } else if (arg.equals("--taintFixedPoint")) {
+                //污点分析使用基本块不动点迭代（循环中回边的污点也能传播），默认单遍线性分析，可用于对比精度和耗时
+                ConfigHelper.taintFixedPoint = true;
+            } else if (arg.equals("--summaryCache")) {
+                //启用方法摘要缓存（cache目录），按class字节码hash和被调用方法的摘要复用上次的passthrough、callgraph分析结果，重新扫描时未变化的jar不需要再次分析
+                ConfigHelper.summaryCache = true;
             } else if (arg.equals("--opLevel")) {
                 //链聚合优化等级，--OpLevel 1表示一层优化，默认0不优化
                 ConfigHelper.opLevel = Integer.parseInt(args[++argIndex]);
@@ -117,6 +133,20 @@ public class GadgetInspector {
             } else if (arg.equals("--onlyJDK")) {
                 //仅扫描jdk
                 ConfigHelper.onlyJDK = true;
+            } else if (arg.equals("--buildJdkBundle")) {
+                //仅扫描jdk，并把分析结果打包为jdk-bundle/jdk-{java.version}-{config}.zip，供后续扫描应用时使用--jdkBundle加载
+                ConfigHelper.onlyJDK = true;
+                ConfigHelper.buildJdkBundle = true;
+            } else if (arg.equals("--jdkBundle")) {
+                //加载--buildJdkBundle生成的jdk摘要包，jdk的类、方法、passthrough、callgraph直接使用摘要包的结果，只分析应用的jar
+                ConfigHelper.jdkBundle = args[++argIndex];
+            } else if (arg.equals("--jdkModules")) {
+                //java9+仅扫描指定的jdk模块，逗号分隔（例：java.base,java.naming,java.rmi,java.sql,java.xml,java.desktop）
+                for (String module : args[++argIndex].split(",")) {
+                    if (!module.trim().isEmpty()) {
+                        ConfigHelper.jdkModules.add(module.trim());
+                    }
+                }
             } else if (arg.equals("--maxChainLength")) {
                 //仅输出小于该链长度的链
                 ConfigHelper.maxChainLength = Integer.parseInt(args[++argIndex]);
@@ -124,12 +154,38 @@ public class GadgetInspector {
                 //启用爬虫功能，每*分钟分析一遍，出一次报告。若配置--crawMaven，则使用内置爬虫功能，爬取maven仓库
                 ConfigHelper.craw = true;
                 ConfigHelper.crawMin = Integer.parseInt(args[++argIndex]);
+            } else if (arg.equals("--incremental")) {
+                //增量分析，每轮只分析新增的jar：新增的类合并到上一轮的分析结果，只重新分析新增的类和引用了它们的类，只从能调用到新增代码的source开始搜索
+                ConfigHelper.incremental = true;
+            } else if (arg.equals("--watch")) {
+                //监听扫描目录，新jar到达后等待*秒内没有新的jar，合并为一批立即增量分析，代替--craw定时重新遍历目录
+                ConfigHelper.watch = true;
+                ConfigHelper.watchDebounceSec = Integer.parseInt(args[++argIndex]);
+                ConfigHelper.craw = true;
+                ConfigHelper.incremental = true;
             } else if (arg.equals("--crawMaven")) {
                 //爬取maven仓库
                 ConfigHelper.crawMaven = true;
                 ConfigHelper.crawMavenJarPath = args[++argIndex];
                 if (!ConfigHelper.crawMavenJarPath.endsWith("/"))
                     ConfigHelper.crawMavenJarPath += "/";
+            } else if (arg.equals("--crawMavenRepo")) {
+                //爬取的maven仓库地址，默认https://repo1.maven.org/maven2/，可指定镜像或本地的http服务
+                ConfigHelper.crawMavenRepo = args[++argIndex];
+                if (!ConfigHelper.crawMavenRepo.endsWith("/"))
+                    ConfigHelper.crawMavenRepo += "/";
+            } else if (arg.equals("--crawProxy")) {
+                //爬虫使用的http代理，host:port，默认127.0.0.1:7890，direct表示不使用代理
+                ConfigHelper.crawProxy = args[++argIndex];
+            } else if (arg.equals("--crawMaxPerHost")) {
+                //爬虫每个host的最大连接数（连接池复用keep-alive连接），也是同时下载的jar数量上限，默认8
+                ConfigHelper.crawMaxPerHost = Integer.parseInt(args[++argIndex]);
+            } else if (arg.equals("--crawRate")) {
+                //爬虫每秒最多请求的url数量（目录页面和jar），默认20
+                ConfigHelper.crawRate = Double.parseDouble(args[++argIndex]);
+            } else if (arg.equals("--crawMavenIndex")) {
+                //按本地maven仓库镜像中的maven-metadata.xml批量列出artifact的最新版本，代替逐个目录爬取html，镜像中没有的jar从--crawMavenRepo下载
+                ConfigHelper.crawMavenIndex = args[++argIndex];
             } else if (arg.equals("--onlyCrawMaven")) {
                 //只爬取maven仓库，不挖掘gadget
                 ConfigHelper.onlyCrawMaven = true;
@@ -149,6 +205,10 @@ public class GadgetInspector {
                 // 类 方法名 方法描述，例：java/rmi/registry/Registry lookup (Ljava/lang/String;)Ljava/rmi/Remote;），
                 // 缺少的不判断（例：java/rmi/registry/Registry lookup，不判断方法描述）
                 ConfigHelper.slinksFile = args[++argIndex];
+            } else if (arg.equals("--rulesFile")) {
+                //自定义source、slink规则文件，每行一条规则（例：type=slink superclass=javax/naming/Context name=lookup arg=1），可与内置的source、slink同时使用
+                ConfigHelper.rulesFile = args[++argIndex];
+                MethodRule.init();
             } else if (arg.equals("--slink")) {
               for (int i = argIndex + 1; i < args.length; i++) {
                 if (!args[i].startsWith("--") && !args[i].startsWith("/")) {
@@ -176,114 +236,230 @@ public class GadgetInspector {
             }
         }
 
+        //先开始监听再遍历目录，第一轮分析期间到达的jar不会遗漏
+        JarDirectoryWatcher watcher = ConfigHelper.watch ? createWatcher(args, argIndex) : null;
+
         for (int i = 0; (i < 1 || ConfigHelper.craw) && (!ConfigHelper.onlyCrawMaven && !ConfigHelper.onlyCrawNexus && !ConfigHelper.onlyCrawMavenPopular); i++) {
             AtomicBoolean haveNewJar = new AtomicBoolean(false);
             List<Path> pathList = new ArrayList<>();
-            ClassLoader classLoader = initJarData(args, boot, argIndex, haveNewJar, pathList);
-//            ClassLoader classLoader = new URLClassLoader(new URL[]{});
-            if (ConfigHelper.craw && !haveNewJar.getAndSet(false)) {
-                Thread.sleep(60 * 1000L);
-                continue;
-            }
-
             //类枚举加载器，具有两个方法
             //getRuntimeClasses获取rt.jar的所有class
             //getAllClasses获取rt.jar以及classLoader加载的class
-            final ClassResourceEnumerator classResourceEnumerator = new ClassResourceEnumerator(
-                    classLoader);
+            //--watch：第一轮之后等待监听到的新jar，不再遍历目录
+            Set<Path> watchedJars = null;
+            if (watcher != null && i > 0) {
+                watchedJars = watcher.awaitJars(ConfigHelper.watchDebounceSec * 1000L);
+                //没有增量记录（上一轮失败）时需要遍历目录全量分析
+                if (!Files.exists(IncrementalDiscovery.STATE_FILE)) {
+                    watchedJars = null;
+                }
+            }
+            ClassResourceEnumerator classResourceEnumerator = watchedJars != null
+                ? initWatchedJarData(watchedJars, haveNewJar, pathList, configs)
+                : initJarData(args, boot, argIndex, haveNewJar, pathList, configs);
+            //--incremental且有上一轮的分析结果时，只分析新增的jar，枚举器包含所有jar
+            IncrementalDiscovery incremental = null;
+            if (ConfigHelper.incremental && classResourceEnumerator instanceof JarClassResourceEnumerator) {
+                incremental = IncrementalDiscovery.load(pathList, configs);
+                if (incremental != null) {
+                    haveNewJar.set(!incremental.getNewJars().isEmpty());
+                    classResourceEnumerator = incremental.getClassResourceEnumerator();
+                }
+            }
+            if (ConfigHelper.craw && !haveNewJar.getAndSet(false)) {
+                if (watcher == null) {
+                    Thread.sleep(60 * 1000L);
+                }
+                continue;
+            }
 
-            //删除所有的dat文件
-            if (!resume) {
+            //删除所有的dat文件，增量分析时保留上一轮的classes、methods、passthrough、callgraph
+            if (incremental != null) {
+                incremental.deleteStaleData(configs);
+            } else if (!resume) {
                 // Delete all existing dat files
                 LOGGER.info("Deleting stale data...");
-                for (String datFile : Arrays
-                    .asList("classes.dat", "methods.dat", "inheritanceMap.dat",
-                        "passthrough.dat", "callgraph.dat", "sources.dat", "methodimpl.dat",
-                        "slinks.dat")) {
-                    final Path path = Paths.get(datFile);
+                List<Path> datFiles = new ArrayList<>();
+                for (String datFile : Arrays.asList("classes.dat", "methods.dat", "inheritanceMap.dat",
+                    "slinks.dat", "serializableDecisions.dat")) {
+                    datFiles.add(Paths.get(datFile));
+                }
+                //全量分析后上一轮的增量记录不再有效
+                datFiles.add(IncrementalDiscovery.STATE_FILE);
+                for (GIConfig config : configs) {
+                    for (String datFile : Arrays.asList("passthrough.dat", "callgraph.dat", "sources.dat",
+                        "methodimpl.dat")) {
+                        datFiles.add(config.getDataPath(datFile));
+                    }
+                }
+                for (Path path : datFiles) {
                     if (Files.exists(path)) {
                         Files.delete(path);
                     }
                 }
             }
 
+            //fuzz类型 -> 找到的chain数量，失败的类型不包含在内
+            Map<String, Integer> chainCounts = new LinkedHashMap<>();
             try {
               //扫描java runtime所有的class（rt.jar）和指定的jar或war中的所有class
-              beginDiscovery(config, classResourceEnumerator, pathList);
+              chainCounts = beginDiscovery(configs, classResourceEnumerator, pathList, incremental);
             } catch (Throwable t) {
               t.printStackTrace();
               //捕获异常，避免异常导致程序终止
+            } finally {
+              classResourceEnumerator.close();
             }
 
-            saveHistory(haveNewJar, pathList);
-            Thread.sleep(ConfigHelper.crawMin * 60 * 1000L);
+            if (ConfigHelper.incremental && classResourceEnumerator instanceof JarClassResourceEnumerator) {
+                //有fuzz类型失败时不保存，下一轮重新全量分析
+                IncrementalDiscovery.saveState(chainCounts.size() < configs.size() ? null
+                    : incremental != null ? incremental.getAllJars() : pathList);
+            }
+
+            saveHistory(haveNewJar, pathList, configs, chainCounts, classResourceEnumerator);
+            if (watcher == null) {
+                Thread.sleep(ConfigHelper.crawMin * 60 * 1000L);
+            }
             LOGGER.info("Analysis complete!");
         }
     }
 
     /**
-     * 保存已被扫描的jar包记录
+     * 保存已被扫描的jar包记录，按jar内容的sha256记录，每种fuzz类型一条
      *
      * @param haveNewJar
      * @param pathList
+     * @param chainCounts fuzz类型 -> 找到的chain数量
      * @throws IOException
      */
-    private static void saveHistory(AtomicBoolean haveNewJar, List<Path> pathList)
+    private static void saveHistory(AtomicBoolean haveNewJar, List<Path> pathList, List<GIConfig> configs,
+        Map<String, Integer> chainCounts, ClassResourceEnumerator classResourceEnumerator)
         throws IOException {
         if (ConfigHelper.history && pathList.size() > 0) {
             haveNewJar.set(true);
-            Path filePath = Paths.get(ConfigHelper.historyRecordFile);
-            if (!Files.exists(filePath))
-                Files.createFile(filePath);
-            try (OutputStream outputStream = Files
-                .newOutputStream(filePath,
-                    StandardOpenOption.APPEND);
-                Writer writer = new OutputStreamWriter(outputStream,
-                    StandardCharsets.UTF_8)) {
-                for (String jar : pathList.stream().map(path -> path.getFileName().toString()).collect(
-                    Collectors.toSet())) {
-                    writer.write(jar);
-                    writer.write("\n");
+            Map<String, String> hashes = JarDeduplicator.hashJars(pathList);
+            //内容相同的jar只有第一个被扫描，class数量按内容记录
+            Map<String, Integer> classCounts = new HashMap<>();
+            if (classResourceEnumerator instanceof JarClassResourceEnumerator) {
+                ((JarClassResourceEnumerator) classResourceEnumerator).getJarClassCounts().forEach(
+                    (path, count) -> classCounts.put(hashes.get(path.toAbsolutePath().toString()), count));
+            }
+            long scanTime = System.currentTimeMillis();
+            try (ScanLedger scanLedger = ScanLedger.open(Paths.get(ConfigHelper.historyRecordFile))) {
+                for (String hash : new LinkedHashSet<>(hashes.values())) {
+                    for (GIConfig config : configs) {
+                        scanLedger.append(new ScanLedger.Record(HashCode.fromString(hash).asBytes(), scanTime,
+                            config.getName(), classCounts.getOrDefault(hash, 0),
+                            chainCounts.getOrDefault(config.getName(), -1)));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 去掉--history中已经用所有--config扫描成功过的jar（按内容的sha256判断），剩下的目录中的jar最多保留--max个
+     *
+     * @param candidates 目录中找到的jar，直接指定的jar不过滤
+     */
+    private static void filterScannedJars(List<Path> pathList, Set<Path> candidates, List<GIConfig> configs)
+        throws IOException {
+        Map<String, String> hashes = JarDeduplicator.hashJars(new ArrayList<>(candidates));
+        int jarCount = 0;
+        int skipped = 0;
+        try (ScanLedger scanLedger = ScanLedger.open(Paths.get(ConfigHelper.historyRecordFile))) {
+            Iterator<Path> iterator = pathList.iterator();
+            while (iterator.hasNext()) {
+                Path path = iterator.next();
+                if (!candidates.contains(path)) {
+                    continue;
+                }
+                byte[] sha256 = HashCode.fromString(hashes.get(path.toAbsolutePath().toString())).asBytes();
+                boolean scanned = true;
+                for (GIConfig config : configs) {
+                    //扫描失败（chain数量为-1）的jar下次重新扫描
+                    ScanLedger.Record record = scanLedger.find(sha256, config.getName());
+                    if (record == null || record.getChainCount() < 0) {
+                        scanned = false;
+                        break;
+                    }
+                }
+                if (scanned) {
+                    skipped++;
+                    iterator.remove();
+                } else if (++jarCount > ConfigHelper.maxJarCount) {
+                    iterator.remove();
+                }
+            }
+        }
+        LOGGER.info("Skipped " + skipped + " jars found in scan history " + ConfigHelper.historyRecordFile);
+    }
+
+    /**
+     * 监听程序参数中的目录（直接指定的jar、war不监听）
+     */
+    private static JarDirectoryWatcher createWatcher(String[] args, int argIndex) throws IOException {
+        List<Path> roots = new ArrayList<>();
+        for (int i = argIndex; i < args.length; i++) {
+            if (!args[i].endsWith(".jar") && Files.isDirectory(Paths.get(args[i]))) {
+                roots.add(Paths.get(args[i]).toAbsolutePath());
+            }
+        }
+        if (roots.isEmpty()) {
+            LOGGER.warn("--watch needs at least one directory, falling back to --craw polling");
+            return null;
+        }
+        return new JarDirectoryWatcher(roots);
+    }
+
+    /**
+     * 使用监听到的jar，跳过无法打开（例：仍在下载中，下载完成时会再次收到事件）或空的jar
+     */
+    private static ClassResourceEnumerator initWatchedJarData(Set<Path> watchedJars, AtomicBoolean haveNewJar,
+        List<Path> pathList, List<GIConfig> configs) throws IOException {
+        for (Path path : watchedJars) {
+            try (ZipFile zipFile = new ZipFile(path.toFile())) {
+                //空的jar没有可分析的类
+                if (zipFile.size() == 0) {
+                    LOGGER.warn("Skipping empty jar " + path);
+                    continue;
                 }
-                writer.flush();
+                pathList.add(path);
+            } catch (IOException e) {
+                LOGGER.warn("Skipping unreadable jar " + path + ": " + e.getMessage());
             }
         }
+        if (ConfigHelper.history && !pathList.isEmpty()) {
+            filterScannedJars(pathList, new HashSet<>(pathList), configs);
+        }
+        LOGGER.info("Using classpath: " + Arrays.toString(pathList.toArray()));
+        haveNewJar.set(pathList.size() != 0);
+        return new JarClassResourceEnumerator(pathList);
     }
 
-    private static ClassLoader initJarData(String[] args, boolean boot, int argIndex,
-        AtomicBoolean haveNewJar, List<Path> pathList)
+    private static ClassResourceEnumerator initJarData(String[] args, boolean boot, int argIndex,
+        AtomicBoolean haveNewJar, List<Path> pathList, List<GIConfig> configs)
         throws IOException {
-        ClassLoader classLoader = null;
+        ClassResourceEnumerator classResourceEnumerator = new ClassResourceEnumerator(null);
         if (!ConfigHelper.onlyJDK) {
             //程序参数的最后一部分，即最后一个具有前缀--的参数（例：--resume）后
             if (args.length == argIndex + 1 && args[argIndex].toLowerCase().endsWith(".war")) {
                 //加载war文件
                 Path path = Paths.get(args[argIndex]);
                 LOGGER.info("Using WAR classpath: " + path);
-                //实现为URLClassLoader，加载war包下的WEB-INF/lib和WEB-INF/classes
-                classLoader = Util.getWarClassLoader(path);
+                //直接读取war包下的WEB-INF/lib和WEB-INF/classes，不解压
+                classResourceEnumerator = NestedJarClassResourceEnumerator.war(path);
             } else if (args.length == argIndex + 1 && args[argIndex].toLowerCase().endsWith(".jar")
                 && boot) {
                 Path path = Paths.get(args[argIndex]);
                 LOGGER.info("Using JAR classpath: " + path);
-                //实现为URLClassLoader，加载jar包下的BOOT-INF/lib和BOOT-INF/classes
-                classLoader = Util.getJarAndLibClassLoader(path);
+                //直接读取jar包下的BOOT-INF/lib和BOOT-INF/classes，不解压
+                classResourceEnumerator = NestedJarClassResourceEnumerator.boot(path);
             } else {
                 //加载jar文件，java命令后部，可配置多个
-                Set<String> scanJarHistory = new HashSet<>();
-                Path filePath = Paths.get(ConfigHelper.historyRecordFile);
-                if (ConfigHelper.history && Files.exists(filePath)) {
-                    try (InputStream inputStream = Files
-                        .newInputStream(filePath);
-                        Scanner scanner = new Scanner(inputStream, StandardCharsets.UTF_8.name())) {
-                        while (scanner.hasNext()) {
-                            String jar = scanner.nextLine();
-                            if (jar.length() > 0) {
-                                scanJarHistory.add(jar.trim());
-                            }
-                        }
-                    }
-                }
+                //--history时目录下的jar先全部收集，再按内容的sha256过滤掉已扫描过的
+                Set<Path> historyCandidates = new HashSet<>();
                 AtomicInteger jarCount = new AtomicInteger(0);
                 for (int i = 0; i < args.length - argIndex; i++) {
                     String pathStr = args[argIndex + i];
@@ -302,11 +478,8 @@ public class GadgetInspector {
                                 Path path = Paths.get(readFile.getAbsolutePath());
                                 if (Files.exists(path)) {
                                     if (ConfigHelper.history) {
-                                        if (!scanJarHistory.contains(path.getFileName().toString())) {
-                                            if (jarCount.incrementAndGet() <= ConfigHelper.maxJarCount) {
-                                                pathList.add(path);
-                                            }
-                                        }
+                                        pathList.add(path);
+                                        historyCandidates.add(path);
                                     } else {
                                         if (jarCount.incrementAndGet() <= ConfigHelper.maxJarCount) {
                                             pathList.add(path);
@@ -325,69 +498,162 @@ public class GadgetInspector {
                     }
                     pathList.add(path);
                 }
+                if (!historyCandidates.isEmpty()) {
+                    filterScannedJars(pathList, historyCandidates, configs);
+                }
                 LOGGER.info("Using classpath: " + Arrays.toString(pathList.toArray()));
-                //实现为URLClassLoader，加载所有指定的jar
-                classLoader = Util.getJarClassLoader(pathList.toArray(new Path[0]));
+                //直接通过ZipFile读取所有指定的jar
+                classResourceEnumerator = new JarClassResourceEnumerator(pathList);
             }
         }
         haveNewJar.set(pathList.size() != 0);
-        return classLoader;
+        return classResourceEnumerator;
     }
 
-    private static void beginDiscovery(GIConfig config,
+    /**
+     * @return fuzz类型 -> 找到的chain数量，失败的类型不包含在内
+     */
+    private static Map<String, Integer> beginDiscovery(List<GIConfig> configs,
         ClassResourceEnumerator classResourceEnumerator,
-        List<Path> pathList) throws Exception {
+        List<Path> pathList, IncrementalDiscovery incremental) throws Exception {
+        //jdk摘要包，jdk的分析结果直接合并到应用的分析结果中，增量分析时已经合并在上一轮的结果中
+        JdkBundle jdkBundle = null;
+        if (!ConfigHelper.jdkBundle.isEmpty() && incremental == null) {
+            if (configs.size() > 1) {
+                throw new IllegalArgumentException("--jdkBundle only supports a single --config");
+            }
+            LOGGER.info("Loading jdk bundle " + ConfigHelper.jdkBundle);
+            jdkBundle = JdkBundle.load(Paths.get(ConfigHelper.jdkBundle), configs.get(0));
+        }
+
+        //决策结果只对当前数据有效，中断后继续分析时沿用之前保存的结果
+        CachingSerializableDecider.clear();
+        CachingSerializableDecider.load(Paths.get("serializableDecisions.dat"));
+
         // Perform the various discovery steps
-        if (!Files.exists(Paths.get("classes.dat")) || !Files.exists(Paths.get("methods.dat"))
+        if (incremental != null) {
+            LOGGER.info("Running incremental method discovery...");
+            incremental.discoverMethods(configs);
+        } else if (!Files.exists(Paths.get("classes.dat")) || !Files.exists(Paths.get("methods.dat"))
                 || !Files.exists(Paths.get("inheritanceMap.dat"))) {
             LOGGER.info("Running method discovery...");
             MethodDiscovery methodDiscovery = new MethodDiscovery();
             //扫描jar包中的class,保存class文件中的信息到MethodDiscovery中
             methodDiscovery.discover(classResourceEnumerator);
+            if (jdkBundle != null) {
+                methodDiscovery.merge(jdkBundle.getClasses(), jdkBundle.getMethods());
+            }
             //保存了类信息、方法信息、继承实现信息
 //            if (ConfigHelper.isSave){
             methodDiscovery.save();
 //            }
         }
 
+        Map<String, Integer> chainCounts = new LinkedHashMap<>();
+        if (configs.size() == 1) {
+            chainCounts.put(configs.get(0).getName(),
+                beginConfigDiscovery(configs.get(0), classResourceEnumerator, pathList, jdkBundle, incremental));
+        } else {
+            //classes、methods、inheritanceMap与fuzz类型无关，只分析一次；之后的阶段每种fuzz类型一个线程并行执行
+            ExecutorService executorService = Executors.newFixedThreadPool(configs.size());
+            try {
+                Map<GIConfig, Future<Integer>> futures = new LinkedHashMap<>();
+                for (GIConfig config : configs) {
+                    futures.put(config, executorService.submit(
+                        () -> beginConfigDiscovery(config, classResourceEnumerator, pathList, null, incremental)));
+                }
+                for (Map.Entry<GIConfig, Future<Integer>> entry : futures.entrySet()) {
+                    try {
+                        chainCounts.put(entry.getKey().getName(), entry.getValue().get());
+                    } catch (ExecutionException e) {
+                        //某一种fuzz类型失败不影响其它类型的结果
+                        LOGGER.error("Discovery failed for config " + entry.getKey().getName(), e.getCause());
+                    }
+                }
+            } finally {
+                executorService.shutdown();
+            }
+        }
+        CachingSerializableDecider.save(Paths.get("serializableDecisions.dat"));
+        return chainCounts;
+    }
+
+    /**
+     * 与fuzz类型相关的阶段：决策、slink、passthrough、callgraph、source、gadget chain
+     *
+     * @return 找到的chain数量
+     */
+    private static int beginConfigDiscovery(GIConfig config,
+        ClassResourceEnumerator classResourceEnumerator,
+        List<Path> pathList, JdkBundle jdkBundle, IncrementalDiscovery incremental) throws Exception {
+        //同时挖掘多种类型时，日志带上类型
+        String logPrefix = ConfigHelper.multiConfig ? "[" + config.getName() + "] " : "";
+
+        //对所有类预先决策，之后各阶段的决策只需要查询bitmap，数据没有变化时复用serializable-{config}.dat
+        LOGGER.info(logPrefix + "Computing serializable classes...");
+        CachingSerializableDecider.setBitmap(config.getName(), SerializableBitmap.discover(config));
+
         if (!Files.exists(Paths.get("slinks.dat")) && config.getSlinkDiscovery() != null) {
-            LOGGER.info("Running slink discovery...");
+            LOGGER.info(logPrefix + "Running slink discovery...");
             SlinkDiscovery slinkDiscovery = config.getSlinkDiscovery();
             slinkDiscovery.discover();
             slinkDiscovery.save();
         }
 
-        if (!Files.exists(Paths.get("passthrough.dat")) && ConfigHelper.taintTrack) {
-            LOGGER.info("Analyzing methods for passthrough dataflow...");
+        //增量分析：只重新分析新增的类和受影响的类，之后passthrough.dat、callgraph.dat已存在，跳过全量分析
+        Set<MethodReference.Handle> reachingMethods = null;
+        if (incremental != null) {
+            reachingMethods = incremental.discover(config);
+        }
+
+        if (!Files.exists(config.getDataPath("passthrough.dat")) && ConfigHelper.taintTrack) {
+            LOGGER.info(logPrefix + "Analyzing methods for passthrough dataflow...");
             PassthroughDiscovery passthroughDiscovery = new PassthroughDiscovery();
+            if (jdkBundle != null) {
+                passthroughDiscovery.preload(jdkBundle.getPassthrough());
+            }
             //记录参数在方法调用链中的流动关联（如：A、B、C、D四个方法，调用链为A->B B->C C->D，其中参数随着调用关系从A流向B，在B调用C过程中作为入参并随着方法结束返回，最后流向D）
             //该方法主要是追踪上面所说的"B调用C过程中作为入参并随着方法结束返回"，入参和返回值之间的关联
             passthroughDiscovery.discover(classResourceEnumerator, config);
             passthroughDiscovery.save();
         }
 
-        if (!Files.exists(Paths.get("callgraph.dat"))) {
-            LOGGER.info("Analyzing methods in order to build a call graph...");
+        if (!Files.exists(config.getDataPath("callgraph.dat"))) {
+            LOGGER.info(logPrefix + "Analyzing methods in order to build a call graph...");
             CallGraphDiscovery callGraphDiscovery = new CallGraphDiscovery();
+            if (jdkBundle != null) {
+                callGraphDiscovery.preload(jdkBundle.getCallGraph());
+            }
             //记录参数在方法调用链中的流动关联（如：A、B、C三个方法，调用链为A->B B->C，其中参数随着调用关系从A流向B，最后流C）
             //该方法主要是追踪上面所说的参数流动，即A->B入参和B->C入参的关系，以确定参数可控
             callGraphDiscovery.discover(classResourceEnumerator, config);
             callGraphDiscovery.save();
         }
 
-        if (!Files.exists(Paths.get("sources.dat"))) {
-            LOGGER.info("Discovering gadget chain source methods...");
+        if (ConfigHelper.buildJdkBundle) {
+            Path bundlePath = JdkBundle.defaultPath(config);
+            LOGGER.info(logPrefix + "Building jdk bundle " + bundlePath);
+            JdkBundle.build(bundlePath, config);
+            return 0;
+        }
+
+        if (!Files.exists(config.getDataPath("sources.dat"))) {
+            LOGGER.info(logPrefix + "Discovering gadget chain source methods...");
             SourceDiscovery sourceDiscovery = config.getSourceDiscovery();
             //查找利用链的入口（例：java原生反序列化的readObject）
-            sourceDiscovery.discover();
+            sourceDiscovery.discover(config);
             sourceDiscovery.save();
         }
 
         {
-            LOGGER.info("Searching call graph for gadget chains...");
+            LOGGER.info(logPrefix + "Searching call graph for gadget chains...");
             GadgetChainDiscovery gadgetChainDiscovery = new GadgetChainDiscovery(config);
+            if (reachingMethods != null) {
+                LOGGER.info(logPrefix + "Searching only from sources reaching " + reachingMethods.size() + " affected methods");
+                gadgetChainDiscovery.setSourceFilter(reachingMethods);
+            }
             //根据上面的数据收集，最终分析利用链
-            gadgetChainDiscovery.discover(pathList);
+            return gadgetChainDiscovery.discover(pathList);
         }
     }
 
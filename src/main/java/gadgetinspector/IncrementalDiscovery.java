@@ -0,0 +1,465 @@
+package gadgetinspector;
+
+import gadgetinspector.config.GIConfig;
+import gadgetinspector.data.ClassReference;
+import gadgetinspector.data.DataFactory;
+import gadgetinspector.data.DataLoader;
+import gadgetinspector.data.GraphCall;
+import gadgetinspector.data.InheritanceMap;
+import gadgetinspector.data.MethodReference;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Type;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * --incremental：以上一轮的分析结果为基础，只分析新增的jar
+ *
+ * 1. 新增jar中的类（已分析过的同名类以旧的为准）合并到classes、methods，重新推导inheritanceMap
+ * 2. 新增的类以及常量池引用了它们的旧类重新分析passthrough，passthrough有变化的类继续向引用方扩散，直到不再变化；
+ *    这些类重新分析callgraph，其余类沿用上一轮的结果
+ * 3. 继承关系的变化同样影响旧类：新增类的父类、接口是否可能被序列化（couldBeSerialized，取决于子类）变化时，
+ *    引用了这些父类、接口（例：该类型的字段）的旧类也重新分析；父类中有新增类的旧类同理
+ * 4. 只从能调用到（包括通过重写）这些类的方法的source开始搜索利用链
+ *
+ * 已分析的jar记录在incremental-jars.dat，某一轮失败时删除，下一轮重新全量分析
+ */
+public class IncrementalDiscovery {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(IncrementalDiscovery.class);
+
+    public static final Path STATE_FILE = Paths.get("incremental-jars.dat");
+
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_FIELDREF = 9;
+
+    private final List<Path> allJars;
+    private final List<Path> newJars;
+    private final JarClassResourceEnumerator classResourceEnumerator;
+
+    //类名 -> 类资源，上一轮已分析的类
+    private final Map<String, ClassResourceEnumerator.ClassResource> oldClasses = new HashMap<>();
+    //类名 -> 类资源，本轮新增的类
+    private final Map<String, ClassResourceEnumerator.ClassResource> newClasses = new LinkedHashMap<>();
+    //类名 -> 常量池中引用了该类（包括字段类型）的类
+    private final Map<String, Set<String>> referencedBy = new ConcurrentHashMap<>();
+    //新增类的父类、接口（不包括新增类本身）
+    private final Set<ClassReference.Handle> newSuperTypes = new HashSet<>();
+    //父类、接口中有新增类的旧类
+    private final Set<String> newSubTypes = new HashSet<>();
+    //fuzz类型 -> {newSuperTypes中的类 -> 合并新增类之前couldBeSerialized的结果}
+    private final Map<String, Map<ClassReference.Handle, Boolean>> previousSerializable = new HashMap<>();
+
+    private IncrementalDiscovery(List<Path> allJars, List<Path> newJars) {
+        this.allJars = allJars;
+        this.newJars = newJars;
+        this.classResourceEnumerator = new JarClassResourceEnumerator(allJars);
+    }
+
+    /**
+     * @param pathList 本轮找到的jar
+     * @return 没有上一轮的分析结果（或结果不完整）时返回null，需要全量分析
+     */
+    public static IncrementalDiscovery load(List<Path> pathList, List<GIConfig> configs) throws IOException {
+        List<Path> dataFiles = new ArrayList<>(Arrays.asList(STATE_FILE, Paths.get("classes.dat"),
+            Paths.get("methods.dat"), Paths.get("inheritanceMap.dat")));
+        for (GIConfig config : configs) {
+            dataFiles.add(config.getDataPath("callgraph.dat"));
+            if (ConfigHelper.taintTrack) {
+                dataFiles.add(config.getDataPath("passthrough.dat"));
+            }
+        }
+        for (Path path : dataFiles) {
+            if (!Files.exists(path)) {
+                LOGGER.info("No previous analysis found (" + path + "), running full analysis");
+                return null;
+            }
+        }
+
+        Set<Path> allJars = new LinkedHashSet<>();
+        for (String jar : DataLoader.loadData(STATE_FILE, new JarFactory())) {
+            Path path = Paths.get(jar);
+            //已删除的jar中的类仍保留在上一轮的结果中
+            if (Files.exists(path)) {
+                allJars.add(path);
+            } else {
+                LOGGER.warn("Previously analyzed jar no longer exists: " + path);
+            }
+        }
+        List<Path> newJars = new ArrayList<>();
+        for (Path path : pathList) {
+            if (allJars.add(path.toAbsolutePath())) {
+                newJars.add(path.toAbsolutePath());
+            }
+        }
+        LOGGER.info("Incremental analysis: " + newJars.size() + " new jars, " + (allJars.size() - newJars.size())
+            + " previously analyzed jars");
+        return new IncrementalDiscovery(new ArrayList<>(allJars), newJars);
+    }
+
+    /**
+     * 保存已分析的jar，null表示本轮失败，下一轮重新全量分析
+     */
+    public static void saveState(List<Path> jars) throws IOException {
+        if (jars == null) {
+            LOGGER.warn("Analysis incomplete, next round will run a full analysis");
+            Files.deleteIfExists(STATE_FILE);
+            return;
+        }
+        List<String> paths = new ArrayList<>(jars.size());
+        jars.forEach(path -> paths.add(path.toAbsolutePath().toString()));
+        DataLoader.saveData(STATE_FILE, new JarFactory(), paths);
+    }
+
+    public List<Path> getAllJars() {
+        return allJars;
+    }
+
+    public List<Path> getNewJars() {
+        return newJars;
+    }
+
+    /**
+     * 所有jar（已分析的在前，同名类以已分析的为准）
+     */
+    public JarClassResourceEnumerator getClassResourceEnumerator() {
+        return classResourceEnumerator;
+    }
+
+    /**
+     * 删除与新增类有关、需要重新计算的数据，classes、methods、passthrough、callgraph作为基础保留
+     */
+    public void deleteStaleData(List<GIConfig> configs) throws IOException {
+        List<Path> datFiles = new ArrayList<>(Arrays.asList(Paths.get("slinks.dat"),
+            Paths.get("serializableDecisions.dat")));
+        for (GIConfig config : configs) {
+            datFiles.add(config.getDataPath("sources.dat"));
+            datFiles.add(config.getDataPath("methodimpl.dat"));
+        }
+        for (Path path : datFiles) {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    /**
+     * 新增的类合并到classes.dat、methods.dat，重新推导inheritanceMap.dat，并建立类之间的常量池引用关系
+     */
+    public void discoverMethods(List<GIConfig> configs) throws Exception {
+        Map<ClassReference.Handle, ClassReference> classMap = DataLoader.loadClasses();
+        Map<MethodReference.Handle, MethodReference> methodMap = DataLoader.loadMethods();
+        InheritanceMap previousInheritanceMap = InheritanceMap.load();
+        Set<Path> newJarSet = new HashSet<>(newJars);
+        for (ClassResourceEnumerator.ClassResource classResource : classResourceEnumerator.getAllClasses()) {
+            String name = classResource.getName();
+            name = name.endsWith(".class") ? name.substring(0, name.length() - ".class".length()) : name;
+            //上一轮分析失败、没有记录在classes.dat中的旧类也不再分析
+            if (classMap.containsKey(new ClassReference.Handle(name))
+                || !newJarSet.contains(JarClassResourceEnumerator.getJarPath(classResource))) {
+                oldClasses.put(name, classResource);
+            } else {
+                newClasses.put(name, classResource);
+            }
+        }
+        LOGGER.info("Found " + newClasses.size() + " new classes, " + oldClasses.size() + " previously analyzed classes");
+
+        MethodDiscovery methodDiscovery = new MethodDiscovery();
+        methodDiscovery.discover(new SubsetClassResourceEnumerator(newClasses.values()));
+        methodDiscovery.merge(classMap.values(), methodMap.values());
+        methodDiscovery.save();
+
+        discoverHierarchy(configs, methodMap, previousInheritanceMap);
+        discoverReferences();
+    }
+
+    /**
+     * 记录新增类的父类、接口在合并前是否可能被序列化，以及父类中有新增类的旧类
+     */
+    private void discoverHierarchy(List<GIConfig> configs, Map<MethodReference.Handle, MethodReference> previousMethodMap,
+        InheritanceMap previousInheritanceMap) throws IOException {
+        InheritanceMap inheritanceMap = InheritanceMap.load();
+        for (String name : newClasses.keySet()) {
+            ClassReference.Handle clazz = new ClassReference.Handle(name);
+            Set<ClassReference.Handle> superClasses = inheritanceMap.getSuperClasses(clazz);
+            if (superClasses != null) {
+                for (ClassReference.Handle superClass : superClasses) {
+                    if (!newClasses.containsKey(superClass.getName())) {
+                        newSuperTypes.add(superClass);
+                    }
+                }
+            }
+            Set<ClassReference.Handle> subClasses = inheritanceMap.getSubClasses(clazz);
+            if (subClasses != null) {
+                for (ClassReference.Handle subClass : subClasses) {
+                    if (oldClasses.containsKey(subClass.getName())) {
+                        newSubTypes.add(subClass.getName());
+                    }
+                }
+            }
+        }
+        for (GIConfig config : configs) {
+            SerializableDecider serializableDecider = config.getSerializableDecider(previousMethodMap,
+                previousInheritanceMap);
+            Map<ClassReference.Handle, Boolean> serializable = new HashMap<>();
+            for (ClassReference.Handle superType : newSuperTypes) {
+                serializable.put(superType, TaintTrackingMethodVisitor.couldBeSerialized(serializableDecider,
+                    previousInheritanceMap, superType));
+            }
+            previousSerializable.put(config.getName(), serializable);
+        }
+        //上面的决策基于合并前的数据，不能留在各阶段共享的决策缓存中
+        CachingSerializableDecider.clear();
+    }
+
+    /**
+     * 只读取常量池，记录每个类引用了哪些类，不需要完整解析字节码
+     */
+    private void discoverReferences() throws IOException {
+        List<ClassResourceEnumerator.ClassResource> classResources = new ArrayList<>(oldClasses.values());
+        classResources.addAll(newClasses.values());
+        try {
+            classResources.parallelStream().forEach(classResource -> {
+                try (InputStream in = classResource.getInputStream()) {
+                    ClassReader cr = new ClassReader(in);
+                    String className = cr.getClassName();
+                    char[] buf = new char[cr.getMaxStringLength()];
+                    for (int i = 1; i < cr.getItemCount(); i++) {
+                        int offset = cr.getItem(i);
+                        //long、double占两项，第二项为0
+                        if (offset == 0) {
+                            continue;
+                        }
+                        String name;
+                        if (cr.readByte(offset - 1) == CONSTANT_CLASS) {
+                            name = cr.readUTF8(offset, buf);
+                        } else if (cr.readByte(offset - 1) == CONSTANT_FIELDREF) {
+                            //字段类型只出现在描述符中，GETFIELD时会判断字段类型是否可能被序列化
+                            Type type = Type.getType(cr.readUTF8(cr.getItem(cr.readUnsignedShort(offset + 2)) + 2, buf));
+                            if (type.getSort() == Type.ARRAY) {
+                                type = type.getElementType();
+                            }
+                            if (type.getSort() != Type.OBJECT) {
+                                continue;
+                            }
+                            name = type.getInternalName();
+                        } else {
+                            continue;
+                        }
+                        if (name.startsWith("[")) {
+                            Type type = Type.getType(name).getElementType();
+                            if (type.getSort() != Type.OBJECT) {
+                                continue;
+                            }
+                            name = type.getInternalName();
+                        }
+                        if (!name.equals(className)) {
+                            referencedBy.computeIfAbsent(name, k -> ConcurrentHashMap.newKeySet()).add(className);
+                        }
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                } catch (Exception e) {
+                    LOGGER.error("Error reading constant pool: " + classResource.getName(), e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * 增量分析passthrough、callgraph
+     *
+     * @return 能调用到新增类、受影响类中方法的所有方法，用于过滤利用链搜索的source
+     */
+    public Set<MethodReference.Handle> discover(GIConfig config) throws IOException {
+        String logPrefix = ConfigHelper.multiConfig ? "[" + config.getName() + "] " : "";
+        Map<MethodReference.Handle, MethodReference> methodMap = DataLoader.loadMethods();
+        InheritanceMap inheritanceMap = InheritanceMap.load();
+        //继承关系有变化的旧类型
+        Set<String> hierarchyChanged = changedHierarchy(config, methodMap, inheritanceMap);
+        //需要重新分析的类：新增的类，以及引用了新增类、继承关系有变化的类型的旧类
+        Set<String> affected = new HashSet<>(newClasses.keySet());
+        affected.addAll(referencingClasses(newClasses.keySet(), affected));
+        affected.addAll(referencingClasses(hierarchyChanged, affected));
+
+        if (ConfigHelper.taintTrack) {
+            Map<MethodReference.Handle, Set<Integer>> previous = PassthroughDiscovery.load(config);
+            while (true) {
+                LOGGER.info(logPrefix + "Analyzing passthrough dataflow of " + affected.size() + " classes incrementally...");
+                PassthroughDiscovery passthroughDiscovery = new PassthroughDiscovery();
+                passthroughDiscovery.preload(previous);
+                passthroughDiscovery.discover(subset(affected), config);
+                passthroughDiscovery.save();
+
+                //旧类的passthrough有变化时，调用它的类也需要重新分析
+                Set<String> changed = changedClasses(previous, PassthroughDiscovery.load(config), affected);
+                Set<String> referencing = referencingClasses(changed, affected);
+                if (referencing.isEmpty()) {
+                    break;
+                }
+                affected.addAll(referencing);
+            }
+        }
+
+        LOGGER.info(logPrefix + "Building call graph of " + affected.size() + " classes incrementally...");
+        List<GraphCall> previousCalls = DataLoader.loadData(config.getDataPath("callgraph.dat"), new GraphCall.Factory());
+        CallGraphDiscovery callGraphDiscovery = new CallGraphDiscovery();
+        callGraphDiscovery.preload(previousCalls);
+        callGraphDiscovery.discover(subset(affected), config);
+        callGraphDiscovery.save();
+
+        //继承关系有变化的类型的方法（例：接口方法新增了可序列化的实现）也作为起点
+        Set<String> seeds = new HashSet<>(affected);
+        seeds.addAll(hierarchyChanged);
+        return reachingMethods(config, seeds, methodMap, inheritanceMap);
+    }
+
+    /**
+     * @return 合并新增类之后couldBeSerialized结果变化的父类、接口，以及父类中有新增类的旧类
+     */
+    private Set<String> changedHierarchy(GIConfig config, Map<MethodReference.Handle, MethodReference> methodMap,
+        InheritanceMap inheritanceMap) {
+        Set<String> changed = new HashSet<>(newSubTypes);
+        SerializableDecider serializableDecider = config.getSerializableDecider(methodMap, inheritanceMap);
+        for (Map.Entry<ClassReference.Handle, Boolean> entry : previousSerializable
+            .getOrDefault(config.getName(), Collections.emptyMap()).entrySet()) {
+            if (TaintTrackingMethodVisitor.couldBeSerialized(serializableDecider, inheritanceMap, entry.getKey())
+                != entry.getValue()) {
+                changed.add(entry.getKey().getName());
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * 沿调用关系反向搜索：调用了seeds中方法的方法，以及被重写的父类、接口方法（调用父类方法可能分派到子类实现）
+     */
+    private Set<MethodReference.Handle> reachingMethods(GIConfig config, Set<String> seeds,
+        Map<MethodReference.Handle, MethodReference> methodMap, InheritanceMap inheritanceMap) throws IOException {
+        Map<MethodReference.Handle, Set<MethodReference.Handle>> callers = new HashMap<>();
+        for (GraphCall graphCall : DataLoader.loadData(config.getDataPath("callgraph.dat"), new GraphCall.Factory())) {
+            callers.computeIfAbsent(graphCall.getTargetMethod(), k -> new HashSet<>()).add(graphCall.getCallerMethod());
+        }
+
+        Set<MethodReference.Handle> reached = new HashSet<>();
+        Deque<MethodReference.Handle> queue = new ArrayDeque<>();
+        for (MethodReference.Handle method : methodMap.keySet()) {
+            if (seeds.contains(method.getClassReference().getName()) && reached.add(method)) {
+                queue.add(method);
+            }
+        }
+        while (!queue.isEmpty()) {
+            MethodReference.Handle method = queue.poll();
+            for (MethodReference.Handle caller : callers.getOrDefault(method, Collections.emptySet())) {
+                if (reached.add(caller)) {
+                    queue.add(caller);
+                }
+            }
+            Set<ClassReference.Handle> superClasses = inheritanceMap.getSuperClasses(method.getClassReference());
+            if (superClasses != null) {
+                for (ClassReference.Handle superClass : superClasses) {
+                    MethodReference.Handle superMethod = new MethodReference.Handle(superClass, method.getName(),
+                        method.getDesc());
+                    if (reached.add(superMethod)) {
+                        queue.add(superMethod);
+                    }
+                }
+            }
+        }
+        return reached;
+    }
+
+    /**
+     * @return 常量池引用了classes中的类、且不在exclude中的旧类
+     */
+    private Set<String> referencingClasses(Collection<String> classes, Set<String> exclude) {
+        Set<String> result = new HashSet<>();
+        for (String name : classes) {
+            for (String referencing : referencedBy.getOrDefault(name, Collections.emptySet())) {
+                if (!exclude.contains(referencing) && oldClasses.containsKey(referencing)) {
+                    result.add(referencing);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return affected中passthrough与上一轮不同的旧类
+     */
+    private Set<String> changedClasses(Map<MethodReference.Handle, Set<Integer>> previous,
+        Map<MethodReference.Handle, Set<Integer>> current, Set<String> affected) {
+        Set<MethodReference.Handle> methods = new HashSet<>(previous.keySet());
+        methods.addAll(current.keySet());
+        Set<String> changed = new HashSet<>();
+        for (MethodReference.Handle method : methods) {
+            String className = method.getClassReference().getName();
+            if (!affected.contains(className) || newClasses.containsKey(className) || changed.contains(className)) {
+                continue;
+            }
+            if (!previous.getOrDefault(method, Collections.emptySet())
+                .equals(current.getOrDefault(method, Collections.emptySet()))) {
+                changed.add(className);
+            }
+        }
+        return changed;
+    }
+
+    private ClassResourceEnumerator subset(Set<String> classes) {
+        List<ClassResourceEnumerator.ClassResource> classResources = new ArrayList<>(classes.size());
+        for (String name : classes) {
+            ClassResourceEnumerator.ClassResource classResource = newClasses.get(name);
+            classResources.add(classResource != null ? classResource : oldClasses.get(name));
+        }
+        return new SubsetClassResourceEnumerator(classResources);
+    }
+
+    /**
+     * 只包含部分类的枚举器，jar由外层的枚举器负责关闭
+     */
+    private static class SubsetClassResourceEnumerator extends ClassResourceEnumerator {
+        private final Collection<ClassResource> classResources;
+
+        private SubsetClassResourceEnumerator(Collection<ClassResource> classResources) {
+            this.classResources = classResources;
+        }
+
+        @Override
+        public Collection<ClassResource> getAllClasses() {
+            return classResources;
+        }
+    }
+
+    private static class JarFactory implements DataFactory<String> {
+
+        @Override
+        public String parse(String[] fields) {
+            return fields[0];
+        }
+
+        @Override
+        public String[] serialize(String obj) {
+            return new String[]{obj};
+        }
+    }
+}
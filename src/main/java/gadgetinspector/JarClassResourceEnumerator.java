@@ -0,0 +1,190 @@
+package gadgetinspector;
+
+import com.google.common.io.ByteStreams;
+import gadgetinspector.data.SummaryCache;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 直接通过ZipFile读取指定jar中的class，不经过Guava ClassPath和URLClassLoader
+ *
+ * 每个jar只打开一次，多个jar并行读取中央目录，class按jar中的顺序返回，读取时直接从所在的jar读取；
+ * 多个jar时按内容去重，见{@link JarDeduplicator}
+ */
+public class JarClassResourceEnumerator extends ClassResourceEnumerator {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JarClassResourceEnumerator.class);
+
+    private final List<Path> jarPaths;
+
+    private List<ZipFile> zipFiles;
+    private Collection<ClassResource> classResources;
+    //jar -> jar中class的数量（内容重复被跳过的jar不包含在内）
+    private final Map<Path, Integer> jarClassCounts = new LinkedHashMap<>();
+
+    public JarClassResourceEnumerator(List<Path> jarPaths) {
+        for (Path jarPath : jarPaths) {
+            if (!Files.exists(jarPath) || Files.isDirectory(jarPath)) {
+                throw new IllegalArgumentException("Path \"" + jarPath + "\" is not a path to a file.");
+            }
+        }
+        this.jarPaths = new ArrayList<>(jarPaths);
+    }
+
+    /**
+     * 与URLClassLoader一致，同名class只保留第一个jar中的
+     */
+    @Override
+    public synchronized Collection<ClassResource> getAllClasses() throws IOException {
+        if (classResources != null) {
+            return classResources;
+        }
+        //内容完全相同的jar只扫描一次
+        List<Path> uniqueJars = jarPaths.size() > 1 ? JarDeduplicator.dedupJars(jarPaths) : jarPaths;
+        List<List<ZipEntryClassResource>> jarClasses;
+        try {
+            zipFiles = Arrays.asList(new ZipFile[uniqueJars.size()]);
+            IntStream.range(0, uniqueJars.size()).parallel().forEach(i -> {
+                try {
+                    zipFiles.set(i, new ZipFile(uniqueJars.get(i).toFile()));
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Error opening " + uniqueJars.get(i), e);
+                }
+            });
+            jarClasses = IntStream.range(0, uniqueJars.size()).parallel()
+                .mapToObj(i -> listClasses(uniqueJars.get(i), zipFiles.get(i)))
+                .collect(Collectors.toList());
+        } catch (UncheckedIOException e) {
+            close();
+            throw e.getCause();
+        }
+
+        for (int i = 0; i < uniqueJars.size(); i++) {
+            jarClassCounts.put(uniqueJars.get(i), jarClasses.get(i).size());
+        }
+
+        Map<String, ClassResource> result = new LinkedHashMap<>();
+        Map<String, List<ZipEntryClassResource>> duplicates = new LinkedHashMap<>();
+        for (List<ZipEntryClassResource> classes : jarClasses) {
+            for (ZipEntryClassResource classResource : classes) {
+                ClassResource first = result.putIfAbsent(classResource.getName(), classResource);
+                if (first != null) {
+                    duplicates.computeIfAbsent(classResource.getName(),
+                        k -> new ArrayList<>(Collections.singletonList((ZipEntryClassResource) first)))
+                        .add(classResource);
+                }
+            }
+        }
+        if (uniqueJars.size() > 1) {
+            reportDuplicateClasses(duplicates);
+        }
+        LOGGER.info("Found " + result.size() + " classes in " + uniqueJars.size() + " jars");
+        classResources = new ArrayList<>(result.values());
+        return classResources;
+    }
+
+    /**
+     * getAllClasses之后有效
+     */
+    public synchronized Map<Path, Integer> getJarClassCounts() {
+        return jarClassCounts;
+    }
+
+    /**
+     * @return class所在的jar，不是该类枚举器返回的类资源时为null
+     */
+    public static Path getJarPath(ClassResource classResource) {
+        return classResource instanceof ZipEntryClassResource ? ((ZipEntryClassResource) classResource).jarPath : null;
+    }
+
+    private static List<ZipEntryClassResource> listClasses(Path jarPath, ZipFile zipFile) {
+        List<ZipEntryClassResource> classes = new ArrayList<>();
+        Enumeration<? extends ZipEntry> entries = zipFile.entries();
+        while (entries.hasMoreElements()) {
+            ZipEntry entry = entries.nextElement();
+            if (!entry.isDirectory() && entry.getName().endsWith(".class")) {
+                classes.add(new ZipEntryClassResource(jarPath, zipFile, entry));
+            }
+        }
+        return classes;
+    }
+
+    /**
+     * 多个jar中的同名class按字节码hash比较，只分析第一个，相同/冲突的输出到报告
+     */
+    private static void reportDuplicateClasses(Map<String, List<ZipEntryClassResource>> duplicates) throws IOException {
+        Map<String, Map<Path, String>> hashes = new ConcurrentHashMap<>();
+        try {
+            duplicates.entrySet().parallelStream().forEach(entry -> {
+                Map<Path, String> classHashes = new LinkedHashMap<>();
+                for (ZipEntryClassResource classResource : entry.getValue()) {
+                    try (InputStream in = classResource.getInputStream()) {
+                        classHashes.putIfAbsent(classResource.jarPath, SummaryCache.hashClass(ByteStreams.toByteArray(in)));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+                hashes.put(entry.getKey(), classHashes);
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        Map<String, Map<Path, String>> ordered = new LinkedHashMap<>();
+        duplicates.keySet().forEach(name -> ordered.put(name, hashes.get(name)));
+        JarDeduplicator.reportClasses(ordered);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (zipFiles == null) {
+            return;
+        }
+        for (ZipFile zipFile : zipFiles) {
+            if (zipFile != null) {
+                zipFile.close();
+            }
+        }
+        zipFiles = null;
+        classResources = null;
+    }
+
+    private static class ZipEntryClassResource implements ClassResource {
+        private final Path jarPath;
+        private final ZipFile zipFile;
+        private final ZipEntry entry;
+
+        private ZipEntryClassResource(Path jarPath, ZipFile zipFile, ZipEntry entry) {
+            this.jarPath = jarPath;
+            this.zipFile = zipFile;
+            this.entry = entry;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return zipFile.getInputStream(entry);
+        }
+
+        @Override
+        public String getName() {
+            return entry.getName();
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package gadgetinspector;
+
+import com.google.common.hash.Hashing;
+import gadgetinspector.data.DataFactory;
+import gadgetinspector.data.DataLoader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 按内容去重，主要用于爬虫爬取的大量jar：
+ * 1. 整个jar的sha256相同时只扫描第一个，sha256按路径、大小、修改时间缓存在cache/jar-sha256.dat
+ * 2. 多个jar中的同名class按字节码hash比较，相同的只分析一次；不同的（冲突）与URLClassLoader一致只分析第一个jar中的
+ *
+ * 去重结果输出到jar-dedup.txt、class-dedup.txt、class-collisions.txt
+ */
+public class JarDeduplicator {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JarDeduplicator.class);
+
+    public static final String JAR_REPORT = "jar-dedup.txt";
+    public static final String CLASS_REPORT = "class-dedup.txt";
+    public static final String COLLISION_REPORT = "class-collisions.txt";
+
+    /**
+     * @return 去掉内容重复的jar，保留每组中第一个
+     */
+    public static List<Path> dedupJars(List<Path> jarPaths) throws IOException {
+        Map<String, String> hashes = hashJars(jarPaths);
+        Map<String, List<Path>> jarsByHash = new LinkedHashMap<>();
+        for (Path jarPath : jarPaths) {
+            jarsByHash.computeIfAbsent(hashes.get(jarPath.toAbsolutePath().toString()), k -> new ArrayList<>())
+                .add(jarPath);
+        }
+
+        List<Path> result = new ArrayList<>(jarsByHash.size());
+        List<String[]> report = new ArrayList<>();
+        for (Map.Entry<String, List<Path>> entry : jarsByHash.entrySet()) {
+            result.add(entry.getValue().get(0));
+            if (entry.getValue().size() > 1) {
+                List<String> fields = new ArrayList<>();
+                fields.add(entry.getKey());
+                entry.getValue().forEach(path -> fields.add(path.toString()));
+                report.add(fields.toArray(new String[0]));
+            }
+        }
+        if (result.size() < jarPaths.size()) {
+            LOGGER.info("Skipped " + (jarPaths.size() - result.size()) + " duplicate jars, see " + JAR_REPORT);
+        }
+        saveReport(Paths.get(JAR_REPORT), report);
+        return result;
+    }
+
+    /**
+     * 输出同名class的去重、冲突报告
+     *
+     * @param duplicates class名 -> 各个jar中的字节码hash（jar按扫描顺序，第一个为实际分析的）
+     */
+    public static void reportClasses(Map<String, Map<Path, String>> duplicates) throws IOException {
+        List<String[]> dedup = new ArrayList<>();
+        List<String[]> collisions = new ArrayList<>();
+        for (Map.Entry<String, Map<Path, String>> entry : duplicates.entrySet()) {
+            List<String> fields = new ArrayList<>();
+            fields.add(entry.getKey());
+            if (entry.getValue().values().stream().distinct().count() == 1) {
+                fields.add(entry.getValue().values().iterator().next());
+                entry.getValue().keySet().forEach(path -> fields.add(path.toString()));
+                dedup.add(fields.toArray(new String[0]));
+            } else {
+                entry.getValue().forEach((path, hash) -> fields.add(path + "=" + hash));
+                collisions.add(fields.toArray(new String[0]));
+            }
+        }
+        if (!duplicates.isEmpty()) {
+            LOGGER.info("Found " + dedup.size() + " identical duplicate classes and " + collisions.size()
+                + " conflicting classes, see " + CLASS_REPORT + ", " + COLLISION_REPORT);
+        }
+        saveReport(Paths.get(CLASS_REPORT), dedup);
+        saveReport(Paths.get(COLLISION_REPORT), collisions);
+    }
+
+    private static void saveReport(Path path, List<String[]> lines) throws IOException {
+        if (lines.isEmpty()) {
+            Files.deleteIfExists(path);
+            return;
+        }
+        DataLoader.saveData(path, new ReportFactory(), lines);
+    }
+
+    /**
+     * @return 绝对路径 -> sha256（十六进制）
+     */
+    static Map<String, String> hashJars(List<Path> jarPaths) throws IOException {
+        Path cacheFile = Paths.get(ConfigHelper.summaryCacheDir, "jar-sha256.dat");
+        Map<String, JarHash> cache = new ConcurrentHashMap<>();
+        for (JarHash jarHash : DataLoader.loadData(cacheFile, new JarHash.Factory())) {
+            cache.put(jarHash.path, jarHash);
+        }
+
+        AtomicBoolean changed = new AtomicBoolean(false);
+        Map<String, String> hashes;
+        try {
+            hashes = jarPaths.parallelStream().map(jarPath -> jarPath.toAbsolutePath().toString()).distinct()
+                .collect(Collectors.toConcurrentMap(path -> path, path -> {
+                    try {
+                        Path jarPath = Paths.get(path);
+                        long size = Files.size(jarPath);
+                        long lastModified = Files.getLastModifiedTime(jarPath).toMillis();
+                        JarHash jarHash = cache.get(path);
+                        if (jarHash == null || jarHash.size != size || jarHash.lastModified != lastModified) {
+                            jarHash = new JarHash(path, size, lastModified,
+                                com.google.common.io.Files.asByteSource(jarPath.toFile()).hash(Hashing.sha256())
+                                    .toString());
+                            cache.put(path, jarHash);
+                            changed.set(true);
+                        }
+                        return jarHash.sha256;
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        if (changed.get()) {
+            Files.createDirectories(cacheFile.toAbsolutePath().getParent());
+            DataLoader.saveData(cacheFile, new JarHash.Factory(), cache.values());
+        }
+        return hashes;
+    }
+
+    private static class JarHash {
+        private final String path;
+        private final long size;
+        private final long lastModified;
+        private final String sha256;
+
+        private JarHash(String path, long size, long lastModified, String sha256) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.sha256 = sha256;
+        }
+
+        private static class Factory implements DataFactory<JarHash> {
+
+            @Override
+            public JarHash parse(String[] fields) {
+                return new JarHash(fields[0], Long.parseLong(fields[1]), Long.parseLong(fields[2]), fields[3]);
+            }
+
+            @Override
+            public String[] serialize(JarHash obj) {
+                return new String[]{obj.path, Long.toString(obj.size), Long.toString(obj.lastModified), obj.sha256};
+            }
+        }
+    }
+
+    private static class ReportFactory implements DataFactory<String[]> {
+
+        @Override
+        public String[] parse(String[] fields) {
+            return fields;
+        }
+
+        @Override
+        public String[] serialize(String[] obj) {
+            return obj;
+        }
+    }
+}
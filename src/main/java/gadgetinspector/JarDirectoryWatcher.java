@@ -0,0 +1,125 @@
+package gadgetinspector;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * --watch：通过WatchService监听扫描目录（包括子目录）中新增、修改的jar，代替--craw每轮sleep后重新遍历整个目录
+ *
+ * 有新jar后继续等待，直到debounce时间内没有新的事件，这段时间内陆续到达的jar（或仍在下载中的jar）合并为一批
+ */
+public class JarDirectoryWatcher implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JarDirectoryWatcher.class);
+
+    private final WatchService watchService;
+    //WatchKey -> 监听的目录
+    private final Map<WatchKey, Path> directories = new HashMap<>();
+
+    public JarDirectoryWatcher(List<Path> roots) throws IOException {
+        watchService = FileSystems.getDefault().newWatchService();
+        for (Path root : roots) {
+            register(root.toAbsolutePath(), new LinkedHashSet<>());
+        }
+        LOGGER.info("Watching " + directories.size() + " directories for new jars");
+    }
+
+    /**
+     * 阻塞直到有新的jar，之后等待debounce时间内不再有新的事件
+     *
+     * @return 这一批新增、修改的jar；事件溢出（可能丢失了事件）时返回null，需要重新遍历目录
+     */
+    public Set<Path> awaitJars(long debounceMillis) throws IOException, InterruptedException {
+        Set<Path> jars = new LinkedHashSet<>();
+        boolean overflow = false;
+        WatchKey key = watchService.take();
+        while (key != null) {
+            overflow |= processEvents(key, jars);
+            key = jars.isEmpty() && !overflow ? watchService.take()
+                : watchService.poll(debounceMillis, TimeUnit.MILLISECONDS);
+        }
+        if (overflow) {
+            LOGGER.warn("Watch events overflowed, rescanning directories");
+            return null;
+        }
+        LOGGER.info("Found " + jars.size() + " new jars in watched directories");
+        return jars;
+    }
+
+    /**
+     * @return 是否溢出
+     */
+    private boolean processEvents(WatchKey key, Set<Path> jars) throws IOException {
+        Path directory = directories.get(key);
+        boolean overflow = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                overflow = true;
+                continue;
+            }
+            if (directory == null) {
+                continue;
+            }
+            Path path = directory.resolve((Path) event.context());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                jars.remove(path);
+            } else if (Files.isDirectory(path)) {
+                //新建（或移动进来）的子目录需要注册，其中已有的jar也属于新增
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                    register(path, jars);
+                }
+            } else if (path.getFileName().toString().endsWith(".jar")) {
+                jars.add(path);
+            }
+        }
+        if (!key.reset()) {
+            directories.remove(key);
+        }
+        return overflow;
+    }
+
+    private void register(Path root, Set<Path> jars) throws IOException {
+        if (!Files.isDirectory(root)) {
+            return;
+        }
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                directories.put(dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE), dir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (file.getFileName().toString().endsWith(".jar")) {
+                    jars.add(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+}
@@ -0,0 +1,164 @@
+package gadgetinspector;
+
+import gadgetinspector.config.GIConfig;
+import gadgetinspector.data.ClassReference;
+import gadgetinspector.data.DataFactory;
+import gadgetinspector.data.DataLoader;
+import gadgetinspector.data.GraphCall;
+import gadgetinspector.data.MethodReference;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 预先分析好的JDK摘要包（classes、methods、inheritanceMap、passthrough、callgraph）
+ *
+ * 同一个JDK版本的分析结果不会变化，通过--buildJdkBundle生成一次，之后扫描应用时通过--jdkBundle加载，
+ * 只需要分析应用的jar
+ */
+public class JdkBundle {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JdkBundle.class);
+
+    private static final String PROPERTIES_ENTRY = "bundle.properties";
+    //inheritanceMap.dat仅用于查看，加载时需要和应用的类合并后重新推导
+    private static final List<String> DAT_FILES = Arrays.asList(
+        "classes.dat", "methods.dat", "inheritanceMap.dat", "passthrough.dat", "callgraph.dat");
+    //与fuzz类型相关的dat文件，同时挖掘多种类型时文件名带有类型前缀
+    private static final List<String> CONFIG_DAT_FILES = Arrays.asList("passthrough.dat", "callgraph.dat");
+
+    private final List<ClassReference> classes;
+    private final List<MethodReference> methods;
+    private final Map<MethodReference.Handle, Set<Integer>> passthrough;
+    private final List<GraphCall> callGraph;
+
+    private JdkBundle(List<ClassReference> classes, List<MethodReference> methods,
+                      Map<MethodReference.Handle, Set<Integer>> passthrough, List<GraphCall> callGraph) {
+        this.classes = classes;
+        this.methods = methods;
+        this.passthrough = passthrough;
+        this.callGraph = callGraph;
+    }
+
+    /**
+     * 默认的摘要包位置：jdk-bundle/jdk-{java.version}-{config}.zip
+     */
+    public static Path defaultPath(GIConfig config) {
+        return Paths.get("jdk-bundle", "jdk-" + System.getProperty("java.version") + "-" + config.getName() + ".zip");
+    }
+
+    /**
+     * 把当前目录下的dat文件打包，需要在--onlyJDK完成passthrough、callgraph分析后调用
+     */
+    public static void build(Path bundlePath, GIConfig config) throws IOException {
+        Path parent = bundlePath.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Properties properties = new Properties();
+        properties.setProperty("java.version", System.getProperty("java.version"));
+        properties.setProperty("java.vendor", System.getProperty("java.vendor"));
+        properties.setProperty("config", config.getName());
+        properties.setProperty("taintTrack", Boolean.toString(ConfigHelper.taintTrack));
+        properties.setProperty("taintFixedPoint", Boolean.toString(ConfigHelper.taintFixedPoint));
+        properties.setProperty("jdkModules", String.join(",", ConfigHelper.jdkModules));
+
+        try (ZipOutputStream zipOutputStream = new ZipOutputStream(Files.newOutputStream(bundlePath))) {
+            zipOutputStream.setLevel(Deflater.BEST_COMPRESSION);
+            zipOutputStream.putNextEntry(new ZipEntry(PROPERTIES_ENTRY));
+            properties.store(zipOutputStream, "gadgetinspector jdk bundle");
+            zipOutputStream.closeEntry();
+            for (String datFile : DAT_FILES) {
+                Path path = CONFIG_DAT_FILES.contains(datFile) ? config.getDataPath(datFile) : Paths.get(datFile);
+                //未启用污点分析时没有passthrough.dat
+                if (!Files.exists(path)) {
+                    continue;
+                }
+                zipOutputStream.putNextEntry(new ZipEntry(datFile));
+                Files.copy(path, zipOutputStream);
+                zipOutputStream.closeEntry();
+            }
+        }
+    }
+
+    public static JdkBundle load(Path bundlePath, GIConfig config) throws IOException {
+        try (ZipFile zipFile = new ZipFile(bundlePath.toFile())) {
+            ZipEntry propertiesEntry = zipFile.getEntry(PROPERTIES_ENTRY);
+            if (propertiesEntry == null) {
+                throw new IllegalArgumentException("Invalid jdk bundle: " + bundlePath);
+            }
+            Properties properties = new Properties();
+            try (InputStream in = zipFile.getInputStream(propertiesEntry)) {
+                properties.load(in);
+            }
+            if (!config.getName().equals(properties.getProperty("config"))) {
+                throw new IllegalArgumentException("Jdk bundle " + bundlePath + " was built for config "
+                    + properties.getProperty("config") + ", not " + config.getName());
+            }
+            if (!System.getProperty("java.version").equals(properties.getProperty("java.version"))) {
+                LOGGER.warn("Jdk bundle " + bundlePath + " was built with java " + properties.getProperty("java.version")
+                    + ", running java " + System.getProperty("java.version"));
+            }
+            if (!Boolean.toString(ConfigHelper.taintTrack).equals(properties.getProperty("taintTrack"))
+                || !Boolean.toString(ConfigHelper.taintFixedPoint).equals(properties.getProperty("taintFixedPoint"))) {
+                LOGGER.warn("Jdk bundle " + bundlePath + " was built with different taint tracking options");
+            }
+            if (!properties.getProperty("jdkModules", "").isEmpty()) {
+                LOGGER.warn("Jdk bundle " + bundlePath + " only contains jdk modules: "
+                    + properties.getProperty("jdkModules"));
+            }
+
+            Map<MethodReference.Handle, Set<Integer>> passthrough = new HashMap<>();
+            for (Map.Entry<MethodReference.Handle, Set<Integer>> entry : loadEntry(zipFile, "passthrough.dat",
+                new PassthroughDiscovery.PassThroughFactory())) {
+                passthrough.put(entry.getKey(), entry.getValue());
+            }
+            return new JdkBundle(
+                loadEntry(zipFile, "classes.dat", new ClassReference.Factory()),
+                loadEntry(zipFile, "methods.dat", new MethodReference.Factory()),
+                passthrough,
+                loadEntry(zipFile, "callgraph.dat", new GraphCall.Factory()));
+        }
+    }
+
+    private static <T> List<T> loadEntry(ZipFile zipFile, String name, DataFactory<T> factory) throws IOException {
+        ZipEntry entry = zipFile.getEntry(name);
+        if (entry == null) {
+            return Collections.emptyList();
+        }
+        try (InputStream in = zipFile.getInputStream(entry)) {
+            return DataLoader.loadData(in, factory);
+        }
+    }
+
+    public List<ClassReference> getClasses() {
+        return classes;
+    }
+
+    public List<MethodReference> getMethods() {
+        return methods;
+    }
+
+    public Map<MethodReference.Handle, Set<Integer>> getPassthrough() {
+        return passthrough;
+    }
+
+    public List<GraphCall> getCallGraph() {
+        return callGraph;
+    }
+}
@@ -1,37 +1,25 @@
 package gadgetinspector;
 
-import java.io.BufferedReader;
+import gadgetinspector.CrawlerHttpClient.DownloadStatus;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
-import java.security.cert.CertificateException;
-import java.security.cert.X509Certificate;
-import java.util.HashSet;
-import java.util.Queue;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Scanner;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingDeque;
-import javax.net.ssl.SSLContext;
-import org.apache.http.HttpHost;
-import org.apache.http.client.config.RequestConfig;
-import org.apache.http.client.methods.CloseableHttpResponse;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClientBuilder;
-import org.apache.http.impl.client.HttpClients;
-import org.apache.http.ssl.SSLContextBuilder;
-import org.apache.http.ssl.TrustStrategy;
+import java.util.concurrent.Future;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
@@ -45,37 +33,14 @@ import org.slf4j.LoggerFactory;
 public class MavenCrawer {
   private static final Logger LOGGER = LoggerFactory.getLogger(MavenCrawer.class);
 
-  private static SSLConnectionSocketFactory sslsf;
-  private static HttpClientBuilder httpClientBuilder;
-  static {
-    try {
-      SSLContext sslContext = new SSLContextBuilder()
-          .loadTrustMaterial(null, new TrustStrategy() {
-            // 信任所有
-            public boolean isTrusted(X509Certificate[] chain,
-                String authType)
-                throws CertificateException {
-              return true;
-            }
-          }).build();
-      sslsf = new SSLConnectionSocketFactory(
-          sslContext);
-    } catch (Exception e) {
-      e.printStackTrace();
-    }
-    httpClientBuilder = HttpClients
-        .custom()
-        .setProxy(new HttpHost("127.0.0.1", 7890))
-        .disableRedirectHandling()
-        .disableCookieManagement()
-    ;
-    httpClientBuilder.setSSLSocketFactory(sslsf);
-  }
-
   public static void start() {
     crawBusExecutor.execute(MavenCrawer::crawJar);
     Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-      downloadExecutor.shutdown();
+      try {
+        CrawlerHttpClient.getInstance().close();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
       crawWorkerExecutor.shutdown();
       crawBusExecutor.shutdown();
       LOGGER.info("程序关闭，shutdown all thread!");
@@ -86,9 +51,7 @@ public class MavenCrawer {
    * 从maven爬取jar包
    */
   private static void crawJar() {
-    int count = 0;
-    Queue<String> newScanJarHistoryAppend = new LinkedBlockingDeque<>();
-    Set<String> scanJarHistory = new HashSet<>();
+    Set<String> scanJarHistory = ConcurrentHashMap.newKeySet();
     Path filePath = Paths.get("history/craw-history.dat");
     //读爬取历史jar
     try {
@@ -99,15 +62,7 @@ public class MavenCrawer {
             Scanner scanner = new Scanner(inputStream, StandardCharsets.UTF_8.name())) {
           while (scanner.hasNext()) {
             String jar = scanner.nextLine();
-            String name = null;
-            int index = jar.indexOf(".");
-            if (index != -1) {
-              name = jar.substring(0, index);
-              index = name.lastIndexOf("-");
-              if (index != -1) {
-                name = name.substring(0, index);
-              }
-            }
+            String name = jarName(jar);
             if (name != null) {
               scanJarHistory.add(name);
             }
@@ -121,253 +76,252 @@ public class MavenCrawer {
       e.printStackTrace();
     }
 
-    //爬虫根线程
-    crawBusExecutor.execute(() -> {
-      String parentUrl = "https://repo1.maven.org/maven2/org/springframework/";
-      craw(newScanJarHistoryAppend, scanJarHistory, parentUrl, 0);
-    });
-
-    //写爬取历史jar
-    try {
-      if (!Files.exists(filePath))
-        Files.createFile(filePath);
-      try (OutputStream outputStream = Files.newOutputStream(filePath, StandardOpenOption.APPEND);
-          Writer writer = new OutputStreamWriter(outputStream, StandardCharsets.UTF_8)) {
-        while (true) {
-          String jar = newScanJarHistoryAppend.poll();
-          if (jar != null && jar.length() > 0) {
-            writer.write(jar);
-            writer.write("\n");
-            writer.flush();
-            if (++count % 10 == 0) {
-              LOGGER.info("-------------------this task already craw " + count
-                  + " jars------------------");
-            }
-          }
-        }
+    try (CrawlFrontier frontier = openFrontier();
+        Writer writer = Files.newBufferedWriter(filePath, StandardCharsets.UTF_8,
+            StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+      if (ConfigHelper.crawMavenIndex != null) {
+        //按本地镜像的maven-metadata.xml列出jar，不再逐个目录请求html
+        frontier.addAll(crawIndex(scanJarHistory, writer));
+      } else {
+        frontier.addAll(Collections.singletonList(ConfigHelper.crawMavenRepo + "org/springframework/"));
       }
+      //爬虫线程，都从frontier中取url，直到全部完成
+      List<Future<?>> workers = new ArrayList<>();
+      for (int i = 0; i < WORKER_COUNT; i++) {
+        workers.add(crawWorkerExecutor.submit(() -> {
+          crawWorker(frontier, scanJarHistory, writer);
+          return null;
+        }));
+      }
+      for (Future<?> worker : workers) {
+        worker.get();
+      }
+      LOGGER.info("-------------------craw maven over, " + frontier.size() + " urls visited------------------");
     } catch (Exception e) {
       e.printStackTrace();
     }
   }
 
-  //爬虫根线程池（只爬level=0的根）
-  private static ExecutorService crawBusExecutor = Executors.newFixedThreadPool(8);
-  //下载线程池
-  private static ExecutorService downloadExecutor = Executors.newFixedThreadPool(8);
+  private static final int WORKER_COUNT = 8;
+
+  //爬虫主线程
+  private static ExecutorService crawBusExecutor = Executors.newSingleThreadExecutor();
   //爬虫线程池
-  private static ExecutorService crawWorkerExecutor = Executors.newFixedThreadPool(8);
+  private static ExecutorService crawWorkerExecutor = Executors.newFixedThreadPool(WORKER_COUNT);
 
   /**
-   * 核心爬取逻辑
+   * 打开（或恢复）持久化的待爬取队列
    *
-   * @param newScanJarHistoryAppend
-   * @param scanJarHistory
-   * @param parentUrl
-   * @param level
+   * 没有frontier文件但有旧版本的目录历史时，旧版本已爬取过的目录标记为已访问
    */
-  private static void craw(Queue<String> newScanJarHistoryAppend, Set<String> scanJarHistory,
-      String parentUrl, int level) {
-    try {
-      //检测该分支是否已爬取过
-      if (checkDir(parentUrl))
-        return;
-      String content = crawHtmlContent(parentUrl);
-      if (content != null || content.length() >= 0) {
-        Document doc = Jsoup.parse(content);
-        if (doc != null) {
-          Elements contents = doc.select("pre");
-          if (contents != null || contents.size() >= 0) {
-            Elements as = contents.first().select("a");
-            for (int i = as.size() - 1; i > 0; i--) {
-              Element a = as.get(i);
-              String href = a.attr("href");
-              if (href.equals("../")) {
-                continue;
-              }
-              if (href.endsWith(".jar")) {
-                String jar = href;
-                String name = null;
-                int index = jar.indexOf(".");
-                if (index != -1) {
-                  name = jar.substring(0, index);
-                  index = name.lastIndexOf("-");
-                  if (index != -1) {
-                    name = name.substring(0, index);
-                  }
-                }
-                if (!jar.contains("/") && !jar.contains("javadoc") && !jar
-                    .contains("sources") && !jar.contains("test")) {
-                  if (name != null && !scanJarHistory.contains(name) && !scanJarHistory.contains(jar)) {
-                    scanJarHistory.add(name);
-                    downloadExecutor.execute(() -> {
-                      if (download(parentUrl, href)) {
-                        newScanJarHistoryAppend
-                            .offer(jar);
-                      }
-                    });
-                    continue;
-                  }
-                }
-              } else if (href.endsWith("/")) {
-                if (level == 0) {
-                  //level=1的节点，都用多worker线程处理，每个线程处理一个1级分支
-                  crawWorkerExecutor.execute(() -> {
-                    craw(newScanJarHistoryAppend, scanJarHistory, parentUrl + href,
-                        level + 1);
-                  });
-                } else {
-                  //非根非1级节点，都继续用当前线程递归，直到jar包为止
-                  craw(newScanJarHistoryAppend, scanJarHistory, parentUrl + href,
-                      level + 1);
-                }
-              }
-            }
+  private static CrawlFrontier openFrontier() throws IOException {
+    Path frontierPath = Paths.get("history/craw-frontier.dat");
+    boolean exists = Files.exists(frontierPath);
+    CrawlFrontier frontier = CrawlFrontier.open(frontierPath, ConfigHelper.crawRate);
+    Path dirHistoryPath = Paths.get("history/craw-dir-history.dat");
+    if (!exists && Files.exists(dirHistoryPath)) {
+      try (InputStream inputStream = Files
+          .newInputStream(dirHistoryPath);
+          Scanner scanner = new Scanner(inputStream, StandardCharsets.UTF_8.name())) {
+        while (scanner.hasNext()) {
+          String dir = scanner.nextLine().trim();
+          if (dir.length() > 0) {
+            frontier.markDone(repoBase() + dir);
           }
         }
       }
-      //记录符合层级的分支目录，下次启动程序时，不用爬取也可以快速跳过
-      over(parentUrl, level);
-    } catch (Exception e) {
-      e.printStackTrace();
     }
+    return frontier;
   }
 
   /**
-   * 已被爬取过的目录历史
+   * 核心爬取逻辑：目录url解析出子目录和jar加入frontier，jar url异步下载
+   *
+   * 每个取出的url都必须调用done或failed，否则其他爬虫线程会一直等待
    */
-  private static Set<String> mavenDirHistory;
+  private static void crawWorker(CrawlFrontier frontier, Set<String> scanJarHistory, Writer writer)
+      throws InterruptedException {
+    String url;
+    while ((url = frontier.take()) != null) {
+      if (url.endsWith(".jar")) {
+        String crawUrl = url;
+        String jar = url.substring(url.lastIndexOf('/') + 1);
+        download(crawUrl).thenAccept(status -> {
+          try {
+            if (status == DownloadStatus.DONE) {
+              appendHistory(writer, jar);
+            }
+          } catch (IOException e) {
+            e.printStackTrace();
+          }
+          //jar不存在（例：只有pom的parent、bom）时不重试
+          complete(frontier, crawUrl, status == DownloadStatus.DONE, status == DownloadStatus.FAILED);
+        });
+        continue;
+      }
+      boolean found;
+      try {
+        found = crawDirectory(frontier, scanJarHistory, url);
+      } catch (Exception e) {
+        LOGGER.error("craw html content url:" + url + " fail!", e);
+        complete(frontier, url, false, true);
+        continue;
+      }
+      //目录不存在时不重试
+      complete(frontier, url, found, false);
+    }
+  }
 
-  private static void over(String parentUrl, int level) {
-    String saveDir = parentUrl.replace("https://repo1.maven.org/maven2", "");
-    String[] tmp = saveDir.split("/");
-    if (tmp == null || tmp.length == 2 ? level != 2 : level != 1) {
-      return;
+  /**
+   * 请求目录页面，解析出的子目录和jar加入frontier
+   *
+   * @return 目录不存在（404、410）时返回false
+   */
+  private static boolean crawDirectory(CrawlFrontier frontier, Set<String> scanJarHistory, String url)
+      throws IOException {
+    String content = crawHtmlContent(url);
+    if (content == null) {
+      return false;
     }
-    if (ConfigHelper.crawMaven) {
-      if (!mavenDirHistory.contains(saveDir)) {
-        mavenDirHistory.add(saveDir);
-        try {
-          Path filePath = Paths.get("history/craw-dir-history.dat");
-          if (!Files.exists(filePath))
-            Files.createFile(filePath);
-          try (OutputStream outputStream = Files.newOutputStream(filePath, StandardOpenOption.APPEND);
-              Writer writer = new OutputStreamWriter(outputStream, StandardCharsets.UTF_8)) {
-            writer.write(saveDir);
-            writer.write("\n");
-            writer.flush();
+    List<String> dirs = new ArrayList<>();
+    List<String> jars = new ArrayList<>();
+    Document doc = Jsoup.parse(content);
+    Element pre = doc.select("pre").first();
+    if (pre != null) {
+      Elements as = pre.select("a");
+      //倒序，新版本先爬取
+      for (int i = as.size() - 1; i > 0; i--) {
+        String href = as.get(i).attr("href");
+        if (href.equals("../")) {
+          continue;
+        }
+        if (href.endsWith(".jar")) {
+          String name = jarName(href);
+          if (!href.contains("/") && !href.contains("javadoc") && !href
+              .contains("sources") && !href.contains("test")) {
+            if (name != null && !scanJarHistory.contains(href) && scanJarHistory.add(name)) {
+              jars.add(url + href);
+            }
           }
-        } catch (Exception e) {
-          e.printStackTrace();
+        } else if (href.endsWith("/")) {
+          dirs.add(url + href);
         }
       }
     }
-    return;
+    jars.addAll(dirs);
+    frontier.addAll(jars);
+    return true;
   }
 
-  private static boolean checkDir(String parentUrl) {
-    String checkDir = parentUrl.replace("https://repo1.maven.org/maven2", "");
-    if (mavenDirHistory == null) {
-      mavenDirHistory = new HashSet<>();
-      Path filePath = Paths.get("history/craw-dir-history.dat");
-      if (Files.exists(filePath)) {
-        try (InputStream inputStream = Files
-            .newInputStream(filePath);
-            Scanner scanner = new Scanner(inputStream, StandardCharsets.UTF_8.name())) {
-          while (scanner.hasNext()) {
-            String dir = scanner.nextLine();
-            if (dir.length() > 0) {
-              mavenDirHistory.add(dir.trim());
-            }
-          }
-        } catch (IOException e) {
-          e.printStackTrace();
+  /**
+   * 标记url完成或失败，写frontier文件失败时只记录日志（内存中的状态已更新，不影响本次爬取）
+   */
+  private static void complete(CrawlFrontier frontier, String url, boolean success, boolean retryable) {
+    try {
+      if (success) {
+        frontier.done(url);
+      } else {
+        frontier.failed(url, retryable);
+      }
+    } catch (IOException e) {
+      LOGGER.error("Error saving crawl frontier for " + url, e);
+    }
+  }
+
+  /**
+   * 遍历本地镜像的maven-metadata.xml，镜像中已有的jar直接复制，没有的返回仓库中的url，由爬虫线程下载
+   */
+  private static List<String> crawIndex(Set<String> scanJarHistory, Writer writer) throws IOException {
+    List<String> urls = new ArrayList<>();
+    int copied = 0;
+    for (MavenMetadataIndex.Artifact artifact : MavenMetadataIndex
+        .scan(Paths.get(ConfigHelper.crawMavenIndex))) {
+      String jar = artifact.getJarName();
+      String name = jarName(jar);
+      if (jar.contains("javadoc") || jar.contains("sources") || jar.contains("test")
+          || name == null || scanJarHistory.contains(jar) || !scanJarHistory.add(name)) {
+        continue;
+      }
+      Path localJar = artifact.getLocalJar();
+      if (Files.isRegularFile(localJar)) {
+        Path target = Paths.get(ConfigHelper.crawMavenJarPath + jar);
+        if (!Files.exists(target)) {
+          //先复制到.part文件，扫描目录中不会出现复制中的jar
+          Path partPath = target.resolveSibling(jar + ".part");
+          Files.copy(localJar, partPath, StandardCopyOption.REPLACE_EXISTING);
+          Files.move(partPath, target, StandardCopyOption.ATOMIC_MOVE);
         }
+        appendHistory(writer, jar);
+        copied++;
+      } else {
+        urls.add(ConfigHelper.crawMavenRepo + artifact.getRepositoryPath());
       }
     }
-    return mavenDirHistory.contains(checkDir);
+    LOGGER.info("-------------------copy " + copied + " jars from maven index, " + urls.size()
+        + " jars to download------------------");
+    return urls;
+  }
+
+  private static void appendHistory(Writer writer, String jar) throws IOException {
+    synchronized (writer) {
+      writer.write(jar);
+      writer.write("\n");
+      writer.flush();
+    }
+  }
+
+  /**
+   * jar文件名去掉版本号，例：spring-core-5.2.0.RELEASE.jar -> spring-core
+   */
+  private static String jarName(String jar) {
+    String name = null;
+    int index = jar.indexOf(".");
+    if (index != -1) {
+      name = jar.substring(0, index);
+      index = name.lastIndexOf("-");
+      if (index != -1) {
+        name = name.substring(0, index);
+      }
+    }
+    return name;
+  }
+
+  /**
+   * 仓库地址（不带末尾的/），旧版本记录的目录为相对仓库的路径
+   */
+  private static String repoBase() {
+    String repo = ConfigHelper.crawMavenRepo;
+    return repo.endsWith("/") ? repo.substring(0, repo.length() - 1) : repo;
   }
 
   /**
    * 爬取html内容
    *
    * @param url
-   * @return
+   * @return 目录不存在（404、410）时返回null
    */
-  private static String crawHtmlContent(String url) {
+  private static String crawHtmlContent(String url) throws IOException {
     LOGGER.info("craw html content:" + url + " ... ");
-    RequestConfig timeoutConfig = RequestConfig.custom()
-        .setConnectTimeout(60000).setConnectionRequestTimeout(60000)
-        .setSocketTimeout(60000).build();
-    HttpGet httpGet = new HttpGet(url);
-    httpGet.setConfig(timeoutConfig);
-    try {
-      CloseableHttpClient httpClient = null;
-      CloseableHttpResponse response = null;
-      try {
-        httpClient = httpClientBuilder.build();
-        response = httpClient.execute(httpGet);
-        int status = response.getStatusLine().getStatusCode();
-        if (status == 200) {
-          StringBuilder stringBuilder = new StringBuilder(1024);
-          BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(response.getEntity().getContent()));
-          String line;
-          while ((line = bufferedReader.readLine()) != null)
-            stringBuilder.append(line);
-          return stringBuilder.toString();
-        } else {
-          LOGGER.error("craw html content url:" + url + " fail!");
-        }
-      } finally {
-        response.close();
-        httpClient.close();
-        httpGet.releaseConnection();
-      }
-    } catch (Exception e) {
-      e.printStackTrace();
+    String content = CrawlerHttpClient.getInstance().getString(url);
+    if (content == null) {
+      LOGGER.error("craw html content url:" + url + " not found!");
     }
-    return null;
+    return content;
   }
 
   /**
-   * 下载jar包
+   * 异步下载jar包，不占用爬虫线程
    *
-   * @param href
-   * @param file
+   * @param url
    */
-  private static boolean download(String href, String file) {
-    LOGGER.info("download jar:" + href + file + " ... ");
-    String dir = ConfigHelper.crawMavenJarPath;
-    RequestConfig timeoutConfig = RequestConfig.custom()
-        .setConnectTimeout(60000).setConnectionRequestTimeout(60000)
-        .setSocketTimeout(60000).build();
-    HttpGet httpGet = new HttpGet(href + file);
-    httpGet.setConfig(timeoutConfig);
+  private static CompletableFuture<DownloadStatus> download(String url) {
+    LOGGER.info("download jar:" + url + " ... ");
     try {
-      CloseableHttpClient httpClient = null;
-      CloseableHttpResponse response = null;
-      try {
-        httpClient = httpClientBuilder.build();
-        response = httpClient.execute(httpGet);
-        int status = response.getStatusLine().getStatusCode();
-        if (status == 200) {
-          Path path = Paths.get(dir + file);
-          if (!Files.exists(path)) {
-            Files.copy(response.getEntity().getContent(), path);
-          }
-        } else {
-          LOGGER.error("download jar:" + href + file + " fail!");
-          return false;
-        }
-      } finally {
-        response.close();
-        httpClient.close();
-        httpGet.releaseConnection();
-      }
+      return CrawlerHttpClient.getInstance().download(url,
+          Paths.get(ConfigHelper.crawMavenJarPath + url.substring(url.lastIndexOf('/') + 1)));
     } catch (Exception e) {
       e.printStackTrace();
-      return false;
+      return CompletableFuture.completedFuture(DownloadStatus.FAILED);
     }
-    return true;
   }
 }
@@ -1,9 +1,8 @@
 package gadgetinspector;
 
-import java.io.BufferedReader;
+import gadgetinspector.CrawlerHttpClient.DownloadStatus;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
@@ -12,26 +11,14 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
-import java.security.cert.CertificateException;
-import java.security.cert.X509Certificate;
 import java.util.HashSet;
 import java.util.Queue;
 import java.util.Scanner;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingDeque;
-import javax.net.ssl.SSLContext;
-import org.apache.http.HttpHost;
-import org.apache.http.client.config.RequestConfig;
-import org.apache.http.client.methods.CloseableHttpResponse;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClientBuilder;
-import org.apache.http.impl.client.HttpClients;
-import org.apache.http.ssl.SSLContextBuilder;
-import org.apache.http.ssl.TrustStrategy;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
@@ -45,37 +32,14 @@ import org.slf4j.LoggerFactory;
 public class MavenCrawerPopular {
   private static final Logger LOGGER = LoggerFactory.getLogger(MavenCrawerPopular.class);
 
-  private static SSLConnectionSocketFactory sslsf;
-  private static HttpClientBuilder httpClientBuilder;
-  static {
-    try {
-      SSLContext sslContext = new SSLContextBuilder()
-          .loadTrustMaterial(null, new TrustStrategy() {
-            // 信任所有
-            public boolean isTrusted(X509Certificate[] chain,
-                String authType)
-                throws CertificateException {
-              return true;
-            }
-          }).build();
-      sslsf = new SSLConnectionSocketFactory(
-          sslContext);
-    } catch (Exception e) {
-      e.printStackTrace();
-    }
-    httpClientBuilder = HttpClients
-        .custom()
-        .setProxy(new HttpHost("127.0.0.1", 7890))
-        .disableRedirectHandling()
-        .disableCookieManagement()
-    ;
-    httpClientBuilder.setSSLSocketFactory(sslsf);
-  }
-
   public static void start() {
     crawBusExecutor.execute(MavenCrawerPopular::crawJar);
     Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-      downloadExecutor.shutdown();
+      try {
+        CrawlerHttpClient.getInstance().close();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
       crawBusExecutor.shutdown();
       LOGGER.info("程序关闭，shutdown all thread!");
     }));
@@ -151,8 +115,6 @@ public class MavenCrawerPopular {
 
   //爬虫根线程池（只爬level=0的根）
   private static ExecutorService crawBusExecutor = Executors.newFixedThreadPool(2);
-  //下载线程池
-  private static ExecutorService downloadExecutor = Executors.newFixedThreadPool(8);
 
   /**
    * 核心爬取逻辑
@@ -226,8 +188,8 @@ public class MavenCrawerPopular {
                   if (name != null && !scanJarHistory.contains(name) && !scanJarHistory.contains(jar)) {
                     scanJarHistory.add(name);
                     String finalHref = href;
-                    downloadExecutor.execute(() -> {
-                      if (download(finalHref, jar)) {
+                    download(finalHref, jar).thenAccept(status -> {
+                      if (status == DownloadStatus.DONE) {
                         newScanJarHistoryAppend
                             .offer(jar);
                       }
@@ -252,33 +214,12 @@ public class MavenCrawerPopular {
    */
   private static String crawHtmlContent(String url) {
     LOGGER.info("craw html content:" + url + " ... ");
-    RequestConfig timeoutConfig = RequestConfig.custom()
-        .setConnectTimeout(60000).setConnectionRequestTimeout(60000)
-        .setSocketTimeout(60000).build();
-    HttpGet httpGet = new HttpGet(url);
-    httpGet.setConfig(timeoutConfig);
     try {
-      CloseableHttpClient httpClient = null;
-      CloseableHttpResponse response = null;
-      try {
-        httpClient = httpClientBuilder.build();
-        response = httpClient.execute(httpGet);
-        int status = response.getStatusLine().getStatusCode();
-        if (status == 200) {
-          StringBuilder stringBuilder = new StringBuilder(1024);
-          BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(response.getEntity().getContent()));
-          String line;
-          while ((line = bufferedReader.readLine()) != null)
-            stringBuilder.append(line);
-          return stringBuilder.toString();
-        } else {
-          LOGGER.error("craw html content url:" + url + " fail!");
-        }
-      } finally {
-        response.close();
-        httpClient.close();
-        httpGet.releaseConnection();
+      String content = CrawlerHttpClient.getInstance().getString(url);
+      if (content == null) {
+        LOGGER.error("craw html content url:" + url + " fail!");
       }
+      return content;
     } catch (Exception e) {
       e.printStackTrace();
     }
@@ -286,44 +227,18 @@ public class MavenCrawerPopular {
   }
 
   /**
-   * 下载jar包
+   * 异步下载jar包，不占用爬虫线程
    *
    * @param href
    * @param file
    */
-  private static boolean download(String href, String file) {
+  private static CompletableFuture<DownloadStatus> download(String href, String file) {
     LOGGER.info("download jar:" + href + " ... ");
-    String dir = ConfigHelper.crawMavenJarPath;
-    RequestConfig timeoutConfig = RequestConfig.custom()
-        .setConnectTimeout(60000).setConnectionRequestTimeout(60000)
-        .setSocketTimeout(60000).build();
-    HttpGet httpGet = new HttpGet(href);
-    httpGet.setConfig(timeoutConfig);
     try {
-      CloseableHttpClient httpClient = null;
-      CloseableHttpResponse response = null;
-      try {
-        httpClient = httpClientBuilder.build();
-        response = httpClient.execute(httpGet);
-        int status = response.getStatusLine().getStatusCode();
-        if (status == 200) {
-          Path path = Paths.get(dir + file);
-          if (!Files.exists(path)) {
-            Files.copy(response.getEntity().getContent(), path);
-          }
-        } else {
-          LOGGER.error("download jar:" + href + " fail!");
-          return false;
-        }
-      } finally {
-        response.close();
-        httpClient.close();
-        httpGet.releaseConnection();
-      }
+      return CrawlerHttpClient.getInstance().download(href, Paths.get(ConfigHelper.crawMavenJarPath + file));
     } catch (Exception e) {
       e.printStackTrace();
-      return false;
+      return CompletableFuture.completedFuture(DownloadStatus.FAILED);
     }
-    return true;
   }
 }
@@ -0,0 +1,202 @@
+package gadgetinspector;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+/**
+ * --crawMavenIndex：遍历本地maven仓库镜像中的maven-metadata.xml，一次列出所有artifact及其最新版本，
+ * 代替逐个目录请求html页面再解析
+ *
+ * 每个artifact目录下的maven-metadata.xml（本地仓库为maven-metadata-*.xml）记录了groupId、artifactId和版本，
+ * 版本优先取release，其次latest、versions中的最后一个，SNAPSHOT版本跳过
+ */
+public class MavenMetadataIndex {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MavenMetadataIndex.class);
+
+    public static class Artifact {
+        private final String groupId;
+        private final String artifactId;
+        private final String version;
+        //镜像中的artifact目录
+        private final Path directory;
+
+        public Artifact(String groupId, String artifactId, String version, Path directory) {
+            this.groupId = groupId;
+            this.artifactId = artifactId;
+            this.version = version;
+            this.directory = directory;
+        }
+
+        public String getGroupId() {
+            return groupId;
+        }
+
+        public String getArtifactId() {
+            return artifactId;
+        }
+
+        public String getVersion() {
+            return version;
+        }
+
+        public String getJarName() {
+            return artifactId + "-" + version + ".jar";
+        }
+
+        /**
+         * 镜像中的jar路径，镜像中可能只有metadata没有jar
+         */
+        public Path getLocalJar() {
+            return directory.resolve(version).resolve(getJarName());
+        }
+
+        /**
+         * 相对仓库根目录的jar路径，例：org/springframework/spring-core/5.2.0.RELEASE/spring-core-5.2.0.RELEASE.jar
+         */
+        public String getRepositoryPath() {
+            return groupId.replace('.', '/') + "/" + artifactId + "/" + version + "/" + getJarName();
+        }
+    }
+
+    /**
+     * 遍历镜像目录，列出所有artifact的最新版本
+     */
+    public static List<Artifact> scan(Path mirror) throws IOException {
+        DocumentBuilder documentBuilder = newDocumentBuilder();
+        List<Artifact> artifacts = new ArrayList<>();
+        Files.walkFileTree(mirror, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                Path metadata = findMetadata(dir);
+                if (metadata == null) {
+                    return FileVisitResult.CONTINUE;
+                }
+                Artifact artifact = parse(documentBuilder, metadata);
+                if (artifact == null) {
+                    return FileVisitResult.CONTINUE;
+                }
+                artifacts.add(artifact);
+                //artifact目录下只有版本目录，不需要继续遍历
+                return FileVisitResult.SKIP_SUBTREE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                LOGGER.error("Error visiting " + file, e);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        LOGGER.info("Found " + artifacts.size() + " artifacts in maven index " + mirror);
+        return artifacts;
+    }
+
+    /**
+     * @return 目录下的maven-metadata.xml，没有时取maven-metadata-*.xml
+     */
+    private static Path findMetadata(Path dir) throws IOException {
+        Path metadata = dir.resolve("maven-metadata.xml");
+        if (Files.isRegularFile(metadata)) {
+            return metadata;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "maven-metadata-*.xml")) {
+            Iterator<Path> iterator = stream.iterator();
+            return iterator.hasNext() ? iterator.next() : null;
+        }
+    }
+
+    /**
+     * @return 不是artifact级别的metadata（例：插件组、SNAPSHOT版本目录）或解析失败时返回null
+     */
+    private static Artifact parse(DocumentBuilder documentBuilder, Path metadata) {
+        Document document;
+        try (InputStream inputStream = Files.newInputStream(metadata)) {
+            document = documentBuilder.parse(inputStream);
+        } catch (IOException | SAXException e) {
+            LOGGER.error("Error parsing " + metadata + ": " + e.getMessage());
+            return null;
+        } finally {
+            documentBuilder.reset();
+        }
+        Element root = document.getDocumentElement();
+        String groupId = childText(root, "groupId");
+        String artifactId = childText(root, "artifactId");
+        Element versioning = child(root, "versioning");
+        if (groupId == null || artifactId == null || versioning == null) {
+            return null;
+        }
+        String version = childText(versioning, "release");
+        if (version == null) {
+            version = childText(versioning, "latest");
+        }
+        if (version == null) {
+            Element versions = child(versioning, "versions");
+            if (versions != null) {
+                NodeList nodes = versions.getElementsByTagName("version");
+                if (nodes.getLength() > 0) {
+                    version = nodes.item(nodes.getLength() - 1).getTextContent().trim();
+                }
+            }
+        }
+        if (version == null || version.isEmpty() || version.endsWith("-SNAPSHOT")) {
+            return null;
+        }
+        return new Artifact(groupId, artifactId, version, metadata.getParent());
+    }
+
+    private static Element child(Element parent, String name) {
+        NodeList nodes = parent.getChildNodes();
+        for (int i = 0; i < nodes.getLength(); i++) {
+            if (nodes.item(i) instanceof Element && nodes.item(i).getNodeName().equals(name)) {
+                return (Element) nodes.item(i);
+            }
+        }
+        return null;
+    }
+
+    private static String childText(Element parent, String name) {
+        Element element = child(parent, name);
+        if (element == null) {
+            return null;
+        }
+        String text = element.getTextContent().trim();
+        return text.isEmpty() ? null : text;
+    }
+
+    /**
+     * 镜像中的文件不可信，禁用DTD和外部实体（XXE）
+     */
+    private static DocumentBuilder newDocumentBuilder() throws IOException {
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            factory.setFeature("http://xml.org/sax/features/external-general-entities", false);
+            factory.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            factory.setXIncludeAware(false);
+            factory.setExpandEntityReferences(false);
+            return factory.newDocumentBuilder();
+        } catch (ParserConfigurationException e) {
+            throw new IOException("Error creating xml parser", e);
+        }
+    }
+}
@@ -15,6 +15,7 @@ import java.io.InputStream;
 import java.nio.file.Paths;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -47,6 +48,29 @@ public class MethodDiscovery {
         InheritanceDeriver.derive(classMap).save();
     }
 
+    /**
+     * 合并预先分析好的类和方法（例：jdk bundle），应用中存在同名类时以应用的为准
+     *
+     * @param classes
+     * @param methods
+     */
+    public void merge(Collection<ClassReference> classes, Collection<MethodReference> methods) {
+        Set<ClassReference.Handle> discoveredHandles = new HashSet<>();
+        for (ClassReference clazz : discoveredClasses) {
+            discoveredHandles.add(clazz.getHandle());
+        }
+        for (ClassReference clazz : classes) {
+            if (!discoveredHandles.contains(clazz.getHandle())) {
+                discoveredClasses.add(clazz);
+            }
+        }
+        for (MethodReference method : methods) {
+            if (!discoveredHandles.contains(method.getClassReference())) {
+                discoveredMethods.add(method);
+            }
+        }
+    }
+
     public void discover(final ClassResourceEnumerator classResourceEnumerator) throws Exception {
         for (ClassResourceEnumerator.ClassResource classResource : classResourceEnumerator.getAllClasses()) {
             try (InputStream in = classResource.getInputStream()) {
@@ -141,10 +165,8 @@ public class MethodDiscovery {
     }
 
     public static void main(String[] args) throws Exception {
-        ClassLoader classLoader = Util.getWarClassLoader(Paths.get(args[0]));
-
         MethodDiscovery methodDiscovery = new MethodDiscovery();
-        methodDiscovery.discover(new ClassResourceEnumerator(classLoader));
+        methodDiscovery.discover(NestedJarClassResourceEnumerator.war(Paths.get(args[0])));
         methodDiscovery.save();
     }
 }
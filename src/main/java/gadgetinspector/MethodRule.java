@@ -0,0 +1,205 @@
+package gadgetinspector;
+
+import gadgetinspector.config.GIConfig;
+import gadgetinspector.data.ClassReference;
+import gadgetinspector.data.InheritanceMap;
+import gadgetinspector.data.MethodReference;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * --rulesFile中的一条source/slink规则，每行一条，key=value以空格分隔，#后为注释，参考文件rules.demo
+ *
+ * type=source|slink（或sink）、class=类名、superclass=父类或接口（包含自身）、name=方法名、desc=方法描述、
+ * arg=参数下标、annotation=类注解、config=fuzz类型（逗号分隔）；name、desc以*结尾表示前缀匹配，*表示任意
+ */
+public class MethodRule {
+
+    public enum Type {
+        SOURCE, SLINK
+    }
+
+    private static List<MethodRule> rules;
+
+    private final Type type;
+    private final String className;
+    private final ClassReference.Handle superClass;
+    private final String name;
+    private final boolean namePrefix;
+    private final String desc;
+    private final boolean descPrefix;
+    //source：可控的参数下标，默认0；slink：需要可控的参数下标，null表示任意参数
+    private final Integer arg;
+    private final String annotation;
+    private final Set<String> configs;
+
+    private MethodRule(Type type, String className, String superClass, String name, String desc, Integer arg,
+                       String annotation, Set<String> configs) {
+        this.type = type;
+        this.className = className;
+        this.superClass = superClass == null ? null : new ClassReference.Handle(superClass);
+        this.namePrefix = name != null && name.endsWith("*");
+        this.name = namePrefix ? name.substring(0, name.length() - 1) : name;
+        this.descPrefix = desc != null && desc.endsWith("*");
+        this.desc = descPrefix ? desc.substring(0, desc.length() - 1) : desc;
+        this.arg = arg;
+        this.annotation = annotation;
+        this.configs = configs;
+    }
+
+    /**
+     * --rulesFile中指定类型、适用于该fuzz类型的规则，未指定--rulesFile时为空
+     */
+    public static List<MethodRule> getRules(Type type, GIConfig config) throws IOException {
+        List<MethodRule> result = new ArrayList<>();
+        for (MethodRule rule : getRules()) {
+            if (rule.type == type && (rule.configs == null || rule.configs.contains(config.getName()))) {
+                result.add(rule);
+            }
+        }
+        return result;
+    }
+
+    private static synchronized List<MethodRule> getRules() throws IOException {
+        if (rules == null) {
+            init();
+        }
+        return rules;
+    }
+
+    /**
+     * 解析--rulesFile，启动时调用，规则有误时在分析开始前报错（而不是在passthrough、callgraph之后）
+     */
+    public static synchronized void init() throws IOException {
+        rules = ConfigHelper.rulesFile.isEmpty() ? Collections.emptyList() : load(Paths.get(ConfigHelper.rulesFile));
+    }
+
+    public static List<MethodRule> load(Path path) throws IOException {
+        List<MethodRule> result = new ArrayList<>();
+        try (BufferedReader bufferedReader = Files.newBufferedReader(path)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = bufferedReader.readLine()) != null) {
+                lineNumber++;
+                //#之后为注释（包括只由#组成的分隔线）
+                int index = line.indexOf('#');
+                String c = (index == -1 ? line : line.substring(0, index)).trim();
+                if (!c.isEmpty()) {
+                    try {
+                        result.add(parse(c));
+                    } catch (IllegalArgumentException e) {
+                        throw new IllegalArgumentException(path + ":" + lineNumber + ": " + e.getMessage(), e);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    private static MethodRule parse(String line) {
+        Type type = null;
+        String className = null;
+        String superClass = null;
+        String name = null;
+        String desc = null;
+        Integer arg = null;
+        String annotation = null;
+        Set<String> configs = null;
+        for (String field : line.split("\\s+")) {
+            int index = field.indexOf('=');
+            if (index <= 0) {
+                throw new IllegalArgumentException("Invalid rule field: " + field);
+            }
+            String key = field.substring(0, index);
+            String value = field.substring(index + 1).replace('.', '/');
+            switch (key) {
+                case "type":
+                    type = value.equalsIgnoreCase("sink") ? Type.SLINK : Type.valueOf(value.toUpperCase());
+                    break;
+                case "class":
+                    className = value;
+                    break;
+                case "superclass":
+                    superClass = value;
+                    break;
+                case "name":
+                    name = value.equals("*") ? null : value;
+                    break;
+                case "desc":
+                    //方法描述中的.不是包名分隔符
+                    desc = field.substring(index + 1);
+                    desc = desc.equals("*") ? null : desc;
+                    break;
+                case "arg":
+                    arg = value.equals("*") ? null : Integer.parseInt(value);
+                    break;
+                case "annotation":
+                    annotation = value.startsWith("L") && value.endsWith(";") ? value : "L" + value + ";";
+                    break;
+                case "config":
+                    configs = new HashSet<>(Arrays.asList(field.substring(index + 1).split(",")));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown rule key: " + key);
+            }
+        }
+        if (type == null) {
+            throw new IllegalArgumentException("Missing rule type");
+        }
+        if (type == Type.SOURCE && arg == null) {
+            arg = 0;
+        }
+        return new MethodRule(type, className, superClass, name, desc, arg, annotation, configs);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return 精确匹配或前缀匹配的方法名，null表示任意方法名
+     */
+    public String getName() {
+        return name;
+    }
+
+    public boolean isNamePrefix() {
+        return namePrefix;
+    }
+
+    public Integer getArg() {
+        return arg;
+    }
+
+    /**
+     * 方法名以外的条件（方法名由{@link MethodRuleMatcher}的索引匹配）
+     */
+    boolean matches(MethodReference.Handle method, Map<ClassReference.Handle, ClassReference> classMap,
+                    InheritanceMap inheritanceMap) {
+        if (desc != null && !(descPrefix ? method.getDesc().startsWith(desc) : method.getDesc().equals(desc))) {
+            return false;
+        }
+        if (className != null && !className.equals(method.getClassReference().getName())) {
+            return false;
+        }
+        if (superClass != null && !superClass.equals(method.getClassReference())
+            && !inheritanceMap.isSubclassOf(method.getClassReference(), superClass)) {
+            return false;
+        }
+        if (annotation != null) {
+            ClassReference classReference = classMap.get(method.getClassReference());
+            return classReference != null && classReference.getAnnotations().contains(annotation);
+        }
+        return true;
+    }
+}
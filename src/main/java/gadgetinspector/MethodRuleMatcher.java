@@ -0,0 +1,103 @@
+package gadgetinspector;
+
+import gadgetinspector.data.ClassReference;
+import gadgetinspector.data.InheritanceMap;
+import gadgetinspector.data.MethodReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * 启动时把{@link MethodRule}编译为按方法名的索引：精确方法名、方法名前缀（按前缀长度分组）、任意方法名，
+ * 每个方法只需要查询少量候选规则，规则数量增加时匹配耗时基本不变
+ */
+public class MethodRuleMatcher {
+
+    private final Map<ClassReference.Handle, ClassReference> classMap;
+    private final InheritanceMap inheritanceMap;
+
+    //方法名 -> 规则
+    private final Map<String, List<MethodRule>> rulesByName = new HashMap<>();
+    //方法名前缀 -> 规则
+    private final Map<String, List<MethodRule>> rulesByPrefix = new HashMap<>();
+    //出现过的前缀长度，从小到大
+    private final int[] prefixLengths;
+    //匹配任意方法名的规则
+    private final List<MethodRule> anyNameRules = new ArrayList<>();
+
+    public MethodRuleMatcher(List<MethodRule> rules, Map<ClassReference.Handle, ClassReference> classMap,
+                             InheritanceMap inheritanceMap) {
+        this.classMap = classMap;
+        this.inheritanceMap = inheritanceMap;
+        TreeSet<Integer> lengths = new TreeSet<>();
+        for (MethodRule rule : rules) {
+            if (rule.getName() == null) {
+                anyNameRules.add(rule);
+            } else if (rule.isNamePrefix()) {
+                rulesByPrefix.computeIfAbsent(rule.getName(), k -> new ArrayList<>()).add(rule);
+                lengths.add(rule.getName().length());
+            } else {
+                rulesByName.computeIfAbsent(rule.getName(), k -> new ArrayList<>()).add(rule);
+            }
+        }
+        prefixLengths = lengths.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    public boolean isEmpty() {
+        return rulesByName.isEmpty() && rulesByPrefix.isEmpty() && anyNameRules.isEmpty();
+    }
+
+    /**
+     * @return 匹配的source规则中可控的参数下标，没有匹配时返回null
+     */
+    public int[] matchSource(MethodReference.Handle method) {
+        List<MethodRule> matched = match(method);
+        if (matched.isEmpty()) {
+            return null;
+        }
+        return matched.stream().mapToInt(MethodRule::getArg).distinct().toArray();
+    }
+
+    /**
+     * @param argIndex 可控的参数下标
+     */
+    public boolean isSlink(MethodReference.Handle method, int argIndex) {
+        for (MethodRule rule : match(method)) {
+            if (rule.getArg() == null || rule.getArg() == argIndex) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public List<MethodRule> match(MethodReference.Handle method) {
+        List<MethodRule> matched = Collections.emptyList();
+        String name = method.getName();
+        matched = match(rulesByName.get(name), method, matched);
+        for (int length : prefixLengths) {
+            if (length > name.length()) {
+                break;
+            }
+            matched = match(rulesByPrefix.get(name.substring(0, length)), method, matched);
+        }
+        return match(anyNameRules, method, matched);
+    }
+
+    private List<MethodRule> match(List<MethodRule> candidates, MethodReference.Handle method, List<MethodRule> matched) {
+        if (candidates == null) {
+            return matched;
+        }
+        for (MethodRule rule : candidates) {
+            if (rule.matches(method, classMap, inheritanceMap)) {
+                if (matched.isEmpty()) {
+                    matched = new ArrayList<>();
+                }
+                matched.add(rule);
+            }
+        }
+        return matched;
+    }
+}
@@ -0,0 +1,356 @@
+package gadgetinspector;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.SoftReference;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 直接读取war包（WEB-INF/classes、WEB-INF/lib/*.jar）或spring-boot jar包（BOOT-INF/classes、BOOT-INF/lib/*.jar）中的class，
+ * 不再解压到临时目录
+ *
+ * 外层包通过mmap映射，内层jar为stored（spring-boot要求lib不压缩）时直接使用映射的内存，deflated时解压到内存后读取，
+ * 解压后的内容只通过软引用保留（war的lib通常是deflated，全部保留会占用与解压后的lib总大小相当的堆内存），
+ * 内存不足时由GC回收，之后读取时重新解压
+ */
+public class NestedJarClassResourceEnumerator extends ClassResourceEnumerator {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(NestedJarClassResourceEnumerator.class);
+
+    private final Path archivePath;
+    //class所在目录，例：WEB-INF/classes/，为空表示整个包（shadow jar）
+    private final String classesPrefix;
+    //lib所在目录，例：WEB-INF/lib/，null表示没有lib
+    private final String libPrefix;
+
+    //已映射的外层包，boot()判断类型时映射，getAllClasses()时复用
+    private ZipDirectory directory;
+    private Collection<ClassResource> classResources;
+
+    private NestedJarClassResourceEnumerator(Path archivePath, String classesPrefix, String libPrefix,
+        ZipDirectory directory) {
+        this.archivePath = archivePath;
+        this.classesPrefix = classesPrefix;
+        this.libPrefix = libPrefix;
+        this.directory = directory;
+    }
+
+    public static NestedJarClassResourceEnumerator war(Path warPath) {
+        return new NestedJarClassResourceEnumerator(warPath, "WEB-INF/classes/", "WEB-INF/lib/", null);
+    }
+
+    /**
+     * spring-boot jar包，没有BOOT-INF目录时作为shadow jar读取所有class
+     */
+    public static NestedJarClassResourceEnumerator boot(Path jarPath) throws IOException {
+        ZipDirectory directory = ZipDirectory.map(jarPath);
+        for (ZipDirectory.Entry entry : directory.entries) {
+            if (entry.name.startsWith("BOOT-INF/")) {
+                return new NestedJarClassResourceEnumerator(jarPath, "BOOT-INF/classes/", "BOOT-INF/lib/", directory);
+            }
+        }
+        return new NestedJarClassResourceEnumerator(jarPath, "", null, directory);
+    }
+
+    /**
+     * 与URLClassLoader一致，同名class只保留第一个：先classes目录，再按包中顺序的lib
+     */
+    @Override
+    public synchronized Collection<ClassResource> getAllClasses() throws IOException {
+        if (classResources != null) {
+            return classResources;
+        }
+        if (directory == null) {
+            directory = ZipDirectory.map(archivePath);
+        }
+        Map<String, ClassResource> result = new LinkedHashMap<>();
+        List<ZipDirectory.Entry> libs = new ArrayList<>();
+        for (ZipDirectory.Entry entry : directory.entries) {
+            if (entry.name.startsWith(classesPrefix) && entry.name.endsWith(".class")) {
+                String name = entry.name.substring(classesPrefix.length());
+                result.putIfAbsent(name, new ZipEntryClassResource(directory, entry, name));
+            } else if (libPrefix != null && entry.name.startsWith(libPrefix) && entry.name.endsWith(".jar")
+                && entry.name.indexOf('/', libPrefix.length()) < 0) {
+                libs.add(entry);
+            }
+        }
+        for (ZipDirectory.Entry lib : libs) {
+            ZipDirectory nested;
+            try {
+                nested = directory.nested(lib);
+            } catch (IOException e) {
+                LOGGER.error("Error reading nested jar " + archivePath + "!/" + lib.name, e);
+                continue;
+            }
+            DeflatedJar deflatedJar = lib.method == ZipDirectory.STORED ? null : new DeflatedJar(directory, lib, nested);
+            for (ZipDirectory.Entry entry : nested.entries) {
+                if (entry.name.endsWith(".class")) {
+                    result.putIfAbsent(entry.name, deflatedJar == null
+                        ? new ZipEntryClassResource(nested, entry, entry.name)
+                        : new ZipEntryClassResource(deflatedJar, entry, entry.name));
+                }
+            }
+        }
+        LOGGER.info("Found " + result.size() + " classes in " + archivePath + " (" + libs.size() + " nested jars)");
+        classResources = new ArrayList<>(result.values());
+        return classResources;
+    }
+
+    private static class ZipEntryClassResource implements ClassResource {
+        //外层包或stored的内层jar
+        private final ZipDirectory directory;
+        //deflated的内层jar
+        private final DeflatedJar deflatedJar;
+        private final ZipDirectory.Entry entry;
+        private final String resourceName;
+
+        private ZipEntryClassResource(ZipDirectory directory, ZipDirectory.Entry entry, String resourceName) {
+            this.directory = directory;
+            this.deflatedJar = null;
+            this.entry = entry;
+            this.resourceName = resourceName;
+        }
+
+        private ZipEntryClassResource(DeflatedJar deflatedJar, ZipDirectory.Entry entry, String resourceName) {
+            this.directory = null;
+            this.deflatedJar = deflatedJar;
+            this.entry = entry;
+            this.resourceName = resourceName;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            ZipDirectory zipDirectory = directory != null ? directory : deflatedJar.get();
+            return new ByteArrayInputStream(zipDirectory.read(entry));
+        }
+
+        @Override
+        public String getName() {
+            return resourceName;
+        }
+    }
+
+    /**
+     * deflated的内层jar，解压后的内容通过软引用保留，被GC回收后重新解压（内容相同，已列出的entry仍然有效）
+     */
+    private static class DeflatedJar {
+        private final ZipDirectory parent;
+        private final ZipDirectory.Entry entry;
+        private SoftReference<ZipDirectory> directory;
+
+        private DeflatedJar(ZipDirectory parent, ZipDirectory.Entry entry, ZipDirectory directory) {
+            this.parent = parent;
+            this.entry = entry;
+            this.directory = new SoftReference<>(directory);
+        }
+
+        synchronized ZipDirectory get() throws IOException {
+            ZipDirectory zipDirectory = directory.get();
+            if (zipDirectory == null) {
+                zipDirectory = parent.nested(entry);
+                directory = new SoftReference<>(zipDirectory);
+            }
+            return zipDirectory;
+        }
+    }
+
+    /**
+     * 只读的zip中央目录，基于ByteBuffer的绝对位置读取，可以多线程并发读取entry
+     *
+     * 偏移量、长度都来自（可能损坏的）包内容，读取前检查范围，越界时抛出ZipException，只跳过该包
+     */
+    private static class ZipDirectory {
+
+        private static final int LOCAL_HEADER = 0x04034b50;
+        private static final int CENTRAL_HEADER = 0x02014b50;
+        private static final int END_HEADER = 0x06054b50;
+        private static final int STORED = 0;
+        private static final int DEFLATED = 8;
+
+        private final ByteBuffer buffer;
+        private final int base;
+        private final int length;
+        private final String description;
+        private final List<Entry> entries = new ArrayList<>();
+
+        private static class Entry {
+            private final String name;
+            private final int method;
+            private final long compressedSize;
+            private final long size;
+            private final long localHeaderOffset;
+
+            private Entry(String name, int method, long compressedSize, long size, long localHeaderOffset) {
+                this.name = name;
+                this.method = method;
+                this.compressedSize = compressedSize;
+                this.size = size;
+                this.localHeaderOffset = localHeaderOffset;
+            }
+        }
+
+        static ZipDirectory map(Path path) throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                if (channel.size() > Integer.MAX_VALUE) {
+                    throw new IOException("Archive larger than 2GB is not supported: " + path);
+                }
+                ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                return new ZipDirectory(buffer, 0, (int) channel.size(), path.toString());
+            }
+        }
+
+        private ZipDirectory(ByteBuffer buffer, int base, int length, String description) throws IOException {
+            this.buffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            this.base = base;
+            this.length = length;
+            this.description = description;
+
+            int end = -1;
+            for (int i = length - 22; i >= Math.max(0, length - 22 - 0xFFFF); i--) {
+                if (getInt(i) == END_HEADER) {
+                    end = i;
+                    break;
+                }
+            }
+            if (end < 0) {
+                throw new ZipException("End of central directory not found: " + description);
+            }
+            int count = getShort(end + 10);
+            long offset = getUnsignedInt(end + 16);
+            if (count == 0xFFFF || offset == 0xFFFFFFFFL) {
+                throw new ZipException("Zip64 is not supported: " + description);
+            }
+            if (offset > end) {
+                throw new ZipException("Invalid central directory offset " + offset + ": " + description);
+            }
+            int position = (int) offset;
+            for (int i = 0; i < count; i++) {
+                if (getInt(position) != CENTRAL_HEADER) {
+                    throw new ZipException("Invalid central directory header: " + description);
+                }
+                int nameLength = getShort(position + 28);
+                int extraLength = getShort(position + 30);
+                int commentLength = getShort(position + 32);
+                byte[] name = new byte[nameLength];
+                get(position + 46, name, 0, nameLength);
+                entries.add(new Entry(new String(name, StandardCharsets.UTF_8), getShort(position + 10),
+                    getUnsignedInt(position + 20), getUnsignedInt(position + 24), getUnsignedInt(position + 42)));
+                position += 46 + nameLength + extraLength + commentLength;
+            }
+        }
+
+        /**
+         * 内层jar，stored时直接使用外层的内存，否则解压到内存
+         */
+        ZipDirectory nested(Entry entry) throws IOException {
+            if (entry.method == STORED) {
+                int dataOffset = dataOffset(entry);
+                if (entry.size > length - dataOffset) {
+                    throw new ZipException("Entry outside of archive: " + entry.name);
+                }
+                return new ZipDirectory(buffer, base + dataOffset, (int) entry.size, entry.name);
+            }
+            byte[] bytes = read(entry);
+            return new ZipDirectory(ByteBuffer.wrap(bytes), 0, bytes.length, entry.name);
+        }
+
+        byte[] read(Entry entry) throws IOException {
+            if (entry.size > Integer.MAX_VALUE || entry.compressedSize > Integer.MAX_VALUE - 1) {
+                throw new ZipException("Entry too large: " + entry.name);
+            }
+            int dataOffset = dataOffset(entry);
+            if (entry.method == STORED) {
+                byte[] bytes = new byte[(int) entry.size];
+                get(dataOffset, bytes, 0, bytes.length);
+                return bytes;
+            }
+            if (entry.method != DEFLATED) {
+                throw new ZipException("Unsupported compression method " + entry.method + ": " + entry.name);
+            }
+            //nowrap模式下需要在输入末尾多补一个字节
+            byte[] input = new byte[(int) entry.compressedSize + 1];
+            get(dataOffset, input, 0, (int) entry.compressedSize);
+            byte[] bytes = new byte[(int) entry.size];
+            Inflater inflater = new Inflater(true);
+            try {
+                inflater.setInput(input);
+                int n = 0;
+                while (n < bytes.length && !inflater.finished()) {
+                    int inflated = inflater.inflate(bytes, n, bytes.length - n);
+                    if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    n += inflated;
+                }
+                if (n != bytes.length) {
+                    throw new ZipException("Truncated entry: " + entry.name);
+                }
+            } catch (DataFormatException e) {
+                throw new ZipException("Invalid deflated entry " + entry.name + ": " + e.getMessage());
+            } finally {
+                inflater.end();
+            }
+            return bytes;
+        }
+
+        private int dataOffset(Entry entry) throws ZipException {
+            if (entry.localHeaderOffset > length) {
+                throw new ZipException("Invalid local header offset: " + entry.name);
+            }
+            int position = (int) entry.localHeaderOffset;
+            if (getInt(position) != LOCAL_HEADER) {
+                throw new ZipException("Invalid local header: " + entry.name);
+            }
+            int dataOffset = position + 30 + getShort(position + 26) + getShort(position + 28);
+            if (dataOffset + entry.compressedSize > length) {
+                throw new ZipException("Entry outside of archive: " + entry.name);
+            }
+            return dataOffset;
+        }
+
+        private int getShort(int position) throws ZipException {
+            checkRange(position, 2);
+            return buffer.getShort(base + position) & 0xFFFF;
+        }
+
+        private int getInt(int position) throws ZipException {
+            checkRange(position, 4);
+            return buffer.getInt(base + position);
+        }
+
+        private long getUnsignedInt(int position) throws ZipException {
+            checkRange(position, 4);
+            return buffer.getInt(base + position) & 0xFFFFFFFFL;
+        }
+
+        private void get(int position, byte[] bytes, int offset, int length) throws ZipException {
+            checkRange(position, length);
+            ByteBuffer duplicate = buffer.duplicate();
+            ((Buffer) duplicate).position(base + position);
+            duplicate.get(bytes, offset, length);
+        }
+
+        private void checkRange(int position, int size) throws ZipException {
+            if (position < 0 || size < 0 || position > length - size) {
+                throw new ZipException("Offset " + position + " outside of archive: " + description);
+            }
+        }
+    }
+}
@@ -3,6 +3,7 @@ package gadgetinspector;
 import gadgetinspector.config.GIConfig;
 import gadgetinspector.config.JavaDeserializationConfig;
 import gadgetinspector.data.*;
+import com.google.common.io.ByteStreams;
 import org.objectweb.asm.*;
 import org.objectweb.asm.commons.AnalyzerAdapter;
 import org.objectweb.asm.commons.JSRInlinerAdapter;
@@ -22,8 +23,21 @@ public class PassthroughDiscovery {
     //{{sourceClass,sourceMethod}:[{targetClass,targetMethod}]}，收集哪个class的method调用了哪一个class的method关系集合
     private final Map<MethodReference.Handle, Set<MethodReference.Handle>> methodCalls = new HashMap<>();
     private Map<MethodReference.Handle, Set<Integer>> passthroughDataflow;
+    private GIConfig config;
+    //预加载的passthrough（例：jdk bundle）
+    private final Map<MethodReference.Handle, Set<Integer>> preloadedPassthrough = new HashMap<>();
+    //类名 -> class字节码及其读取的类外信息的hash，用于摘要缓存
+    private final Map<String, String> classHashes = new HashMap<>();
+
+    /**
+     * 预加载已分析好的passthrough（例：jdk bundle），调用到这些方法时不需要再分析其所属类
+     */
+    public void preload(Map<MethodReference.Handle, Set<Integer>> passthrough) {
+        preloadedPassthrough.putAll(passthrough);
+    }
 
     public void discover(final ClassResourceEnumerator classResourceEnumerator, final GIConfig config) throws IOException {
+        this.config = config;
         //加载文件记录的所有方法信息
         Map<MethodReference.Handle, MethodReference> methodMap = DataLoader.loadMethods();
         //加载文件记录的所有类信息
@@ -31,38 +45,54 @@ public class PassthroughDiscovery {
         //加载文件记录的所有类继承、实现关联信息
         InheritanceMap inheritanceMap = InheritanceMap.load();
 
+        //字段修饰符索引，由classMap构建
+        FieldModifierMap fieldModifierMap = FieldModifierMap.derive(classMap);
+        SerializableDecider serializableDecider = config.getSerializableDecider(methodMap, inheritanceMap);
+        SummaryCache summaryCache = ConfigHelper.summaryCache ? loadSummaryCache(config) : null;
+
         //搜索方法间的调用关系，缓存至methodCalls集合，返回 类名->类资源 映射集合
         //discoverMethodCalls方法里面保存: 在每个方法中还调用了哪些方法,调用方法和被调用方法作为key,value
-        Map<String, ClassResourceEnumerator.ClassResource> classResourceByName = discoverMethodCalls(classResourceEnumerator);
+        Map<String, ClassResourceEnumerator.ClassResource> classResourceByName = discoverMethodCalls(classResourceEnumerator,
+                summaryCache == null ? null : new SummaryClassHasher(fieldModifierMap, inheritanceMap, serializableDecider));
         //对方法调用关系进行字典排序
         List<MethodReference.Handle> sortedMethods = topologicallySortMethodCalls();
         /**
          * classResourceByName：类资源集合
-         * classMap：类信息集合
+         * fieldModifierMap：字段修饰符索引，由classMap构建
          * inheritanceMap：继承、实现关系集合
          * sortedMethods：方法集合
          * SerializableDecider：决策者
          */
-        passthroughDataflow = calculatePassthroughDataflow(classResourceByName, classMap, inheritanceMap, sortedMethods,
-                config.getSerializableDecider(methodMap, inheritanceMap));
+        passthroughDataflow = calculatePassthroughDataflow(classResourceByName, fieldModifierMap, inheritanceMap, sortedMethods,
+                serializableDecider, summaryCache);
+        if (summaryCache != null) {
+            LOGGER.info("Passthrough summary cache hits " + summaryCache.getHits() + ", misses " + summaryCache.getMisses());
+            summaryCache.save();
+        }
     }
 
     /**
      * 搜索method调用关联信息
      *
      * @param classResourceEnumerator
+     * @param classHasher 摘要缓存的类hash，未启用缓存时为null
      * @return
      * @throws IOException
      */
-    private Map<String, ClassResourceEnumerator.ClassResource> discoverMethodCalls(final ClassResourceEnumerator classResourceEnumerator) throws IOException {
+    private Map<String, ClassResourceEnumerator.ClassResource> discoverMethodCalls(final ClassResourceEnumerator classResourceEnumerator,
+                                                                                   SummaryClassHasher classHasher) throws IOException {
         Map<String, ClassResourceEnumerator.ClassResource> classResourcesByName = new HashMap<>();
         for (ClassResourceEnumerator.ClassResource classResource : classResourceEnumerator.getAllClasses()) {
             try (InputStream in = classResource.getInputStream()) {
-                ClassReader cr = new ClassReader(in);
+                byte[] bytes = ByteStreams.toByteArray(in);
+                ClassReader cr = new ClassReader(bytes);
                 try {
                     MethodCallDiscoveryClassVisitor visitor = new MethodCallDiscoveryClassVisitor(Opcodes.ASM6);
                     cr.accept(visitor, ClassReader.EXPAND_FRAMES);
                     classResourcesByName.put(visitor.getName(), classResource);
+                    if (classHasher != null) {
+                        classHashes.put(visitor.getName(), classHasher.hash(bytes));
+                    }
                 } catch (Exception e) {
                     LOGGER.error("Error analyzing: " + classResource.getName(), e);
                 }
@@ -102,35 +132,63 @@ public class PassthroughDiscovery {
      * 发现方法返回值，也即和入参有关联的返回值，用于分析污染链路
      *
      * @param classResourceByName 类资源集合
-     * @param classMap            类信息集合
+     * @param fieldModifierMap    字段修饰符索引
      * @param inheritanceMap      继承、实现关系集合
      * @param sortedMethods       方法集合
      * @param serializableDecider 决策者
+     * @param summaryCache        摘要缓存，未启用时为null
      * @return
      * @throws IOException
      */
-    private static Map<MethodReference.Handle, Set<Integer>> calculatePassthroughDataflow(Map<String, ClassResourceEnumerator.ClassResource> classResourceByName,
-                                                                                          Map<ClassReference.Handle, ClassReference> classMap,
+    private Map<MethodReference.Handle, Set<Integer>> calculatePassthroughDataflow(Map<String, ClassResourceEnumerator.ClassResource> classResourceByName,
+                                                                                          FieldModifierMap fieldModifierMap,
                                                                                           InheritanceMap inheritanceMap,
                                                                                           List<MethodReference.Handle> sortedMethods,
-                                                                                          SerializableDecider serializableDecider) throws IOException {
+                                                                                          SerializableDecider serializableDecider,
+                                                                                          SummaryCache summaryCache) throws IOException {
         //key对应方法名,value对应可以被污染的参数集合
         final Map<MethodReference.Handle, Set<Integer>> passthroughDataflow = new HashMap<>();
+        //--taintFixedPoint时达到基本块分析次数上限的方法数
+        int visitLimitHits = 0;
+        //应用中存在同名类时以应用的分析结果为准
+        for (Map.Entry<MethodReference.Handle, Set<Integer>> entry : preloadedPassthrough.entrySet()) {
+            if (!classResourceByName.containsKey(entry.getKey().getClassReference().getName())) {
+                passthroughDataflow.put(entry.getKey(), entry.getValue());
+            }
+        }
         //遍历所有方法，然后asm观察所属类，经过前面DFS的排序，调用链最末端的方法在最前面
         for (MethodReference.Handle method : sortedMethods) {
             //跳过static静态初始化代码
             if (method.getName().equals("<clinit>")) {
                 continue;
             }
+            //字节码、读取的类外信息和被调用方法的摘要都没有变化时，直接使用缓存的结果
+            String classHash = null;
+            String depsHash = null;
+            if (summaryCache != null) {
+                classHash = classHashes.get(method.getClassReference().getName());
+                depsHash = summaryCache.dependencyHash(methodCalls.get(method), passthroughDataflow);
+                Set<Integer> cached = summaryCache.getPassthrough(classHash, method, depsHash);
+                if (cached != null) {
+                    passthroughDataflow.put(method, cached);
+                    continue;
+                }
+            }
             //获取所属类进行观察
             ClassResourceEnumerator.ClassResource classResource = classResourceByName.get(method.getClassReference().getName());
             try (InputStream inputStream = classResource.getInputStream()) {
                 ClassReader cr = new ClassReader(inputStream);
                 try {
-                    PassthroughDataflowClassVisitor cv = new PassthroughDataflowClassVisitor(classMap, inheritanceMap,
+                    PassthroughDataflowClassVisitor cv = new PassthroughDataflowClassVisitor(fieldModifierMap, inheritanceMap,
                             passthroughDataflow, serializableDecider, Opcodes.ASM6, method);
                     cr.accept(cv, ClassReader.EXPAND_FRAMES);
                     passthroughDataflow.put(method, cv.getReturnTaint());//缓存方法返回值与哪个参数有关系
+                    if (cv.hitVisitLimit()) {
+                        visitLimitHits++;
+                    }
+                    if (summaryCache != null) {
+                        summaryCache.putPassthrough(classHash, method, depsHash, cv.getReturnTaint());
+                    }
                 } catch (Exception e) {
                     LOGGER.error("Exception analyzing " + method.getClassReference().getName(), e);
                 }
@@ -138,6 +196,9 @@ public class PassthroughDiscovery {
                 LOGGER.error("Unable to analyze " + method.getClassReference().getName(), e);
             }
         }
+        if (ConfigHelper.taintFixedPoint) {
+            LOGGER.info("Passthrough fixed point hit the block visit limit in " + visitLimitHits + " methods");
+        }
         return passthroughDataflow;
     }
 
@@ -220,17 +281,25 @@ public class PassthroughDiscovery {
             throw new IllegalStateException("Save called before discover()");
         }
 
-        DataLoader.saveData(Paths.get("passthrough.dat"), new PassThroughFactory(), passthroughDataflow.entrySet());
+        DataLoader.saveData(config.getDataPath("passthrough.dat"), new PassThroughFactory(), passthroughDataflow.entrySet());
     }
 
-    public static Map<MethodReference.Handle, Set<Integer>> load() throws IOException {
+    public static Map<MethodReference.Handle, Set<Integer>> load(GIConfig config) throws IOException {
         Map<MethodReference.Handle, Set<Integer>> passthroughDataflow = new HashMap<>();
-        for (Map.Entry<MethodReference.Handle, Set<Integer>> entry : DataLoader.loadData(Paths.get("passthrough.dat"), new PassThroughFactory())) {
+        for (Map.Entry<MethodReference.Handle, Set<Integer>> entry : DataLoader.loadData(config.getDataPath("passthrough.dat"), new PassThroughFactory())) {
             passthroughDataflow.put(entry.getKey(), entry.getValue());
         }
         return passthroughDataflow;
     }
 
+    /**
+     * 加载摘要缓存，分析模式不同（是否污点分析、是否不动点迭代）的结果互不复用
+     */
+    static SummaryCache loadSummaryCache(GIConfig config) throws IOException {
+        String mode = "taintTrack=" + ConfigHelper.taintTrack + ",taintFixedPoint=" + ConfigHelper.taintFixedPoint;
+        return SummaryCache.load(Paths.get(ConfigHelper.summaryCacheDir), config.getName(), mode);
+    }
+
     public static class PassThroughFactory implements DataFactory<Map.Entry<MethodReference.Handle, Set<Integer>>> {
 
         @Override
@@ -306,7 +375,7 @@ public class PassthroughDiscovery {
 
     private static class PassthroughDataflowClassVisitor extends ClassVisitor {
 
-        Map<ClassReference.Handle, ClassReference> classMap;//类信息集合
+        private final FieldModifierMap fieldModifierMap;//字段修饰符索引
         private final MethodReference.Handle methodToVisit;//要观察的方法
         private final InheritanceMap inheritanceMap;//继承、实现关系集合
         private final Map<MethodReference.Handle, Set<Integer>> passthroughDataflow;
@@ -315,11 +384,11 @@ public class PassthroughDiscovery {
         private String name;
         private PassthroughDataflowMethodVisitor passthroughDataflowMethodVisitor;
 
-        public PassthroughDataflowClassVisitor(Map<ClassReference.Handle, ClassReference> classMap,
+        public PassthroughDataflowClassVisitor(FieldModifierMap fieldModifierMap,
                 InheritanceMap inheritanceMap, Map<MethodReference.Handle, Set<Integer>> passthroughDataflow,
                 SerializableDecider serializableDecider, int api, MethodReference.Handle methodToVisit) {
             super(api);
-            this.classMap = classMap;
+            this.fieldModifierMap = fieldModifierMap;
             this.inheritanceMap = inheritanceMap;
             this.methodToVisit = methodToVisit;
             this.passthroughDataflow = passthroughDataflow;
@@ -352,10 +421,10 @@ public class PassthroughDiscovery {
             //对method进行观察
             MethodVisitor mv = super.visitMethod(access, name, desc, signature, exceptions);
             passthroughDataflowMethodVisitor = new PassthroughDataflowMethodVisitor(
-                    classMap, inheritanceMap, this.passthroughDataflow, serializableDecider,
+                    fieldModifierMap, inheritanceMap, this.passthroughDataflow, serializableDecider,
                     api, mv, this.name, access, name, desc, signature, exceptions);
 
-            return new JSRInlinerAdapter(passthroughDataflowMethodVisitor, access, name, desc, signature, exceptions);
+            return TaintTrackingMethodVisitor.adapt(passthroughDataflowMethodVisitor, access, name, desc, signature, exceptions);
         }
 
         public Set<Integer> getReturnTaint() {
@@ -364,11 +433,15 @@ public class PassthroughDiscovery {
             }
             return passthroughDataflowMethodVisitor.returnTaint;
         }
+
+        public boolean hitVisitLimit() {
+            return passthroughDataflowMethodVisitor != null && passthroughDataflowMethodVisitor.hitVisitLimit();
+        }
     }
 
     private static class PassthroughDataflowMethodVisitor extends TaintTrackingMethodVisitor<Integer> {
 
-        private final Map<ClassReference.Handle, ClassReference> classMap;//类信息集合
+        private final FieldModifierMap fieldModifierMap;//字段修饰符索引
         private final InheritanceMap inheritanceMap;//继承、实现关系集合
         private final Map<MethodReference.Handle, Set<Integer>> passthroughDataflow;
         private final SerializableDecider serializableDecider;//决策者
@@ -377,12 +450,12 @@ public class PassthroughDiscovery {
         private final String desc;
         private final Set<Integer> returnTaint;//被污染的返回数据
 
-        public PassthroughDataflowMethodVisitor(Map<ClassReference.Handle, ClassReference> classMap,
+        public PassthroughDataflowMethodVisitor(FieldModifierMap fieldModifierMap,
                 InheritanceMap inheritanceMap, Map<MethodReference.Handle,
                 Set<Integer>> passthroughDataflow, SerializableDecider serializableDeciderMap, int api, MethodVisitor mv,
                 String owner, int access, String name, String desc, String signature, String[] exceptions) {
             super(inheritanceMap, passthroughDataflow, api, mv, owner, access, name, desc, signature, exceptions);
-            this.classMap = classMap;
+            this.fieldModifierMap = fieldModifierMap;
             this.inheritanceMap = inheritanceMap;
             this.passthroughDataflow = passthroughDataflow;
             this.serializableDecider = serializableDeciderMap;
@@ -459,29 +532,15 @@ public class PassthroughDiscovery {
                     Type type = Type.getType(desc);//获取字段类型
                     if (type.getSize() == 1) {
                         //size=1可能为引用类型
-                        Boolean isTransient = name.equals("<init>");
+                        Boolean isTransient = null;
 
                         // If a field type could not possibly be serialized, it's effectively transient
                         //判断调用的字段类型是否可序列化
                         if (!couldBeSerialized(serializableDecider, inheritanceMap, new ClassReference.Handle(type.getInternalName()))) {
-                            isTransient |= Boolean.TRUE;
+                            isTransient = Boolean.TRUE;
                         } else {
-                            //若调用的字段可被序列化，则取当前类实例的所有字段，找出调用的字段，去判断是否被标识了transient
-                            ClassReference clazz = classMap.get(new ClassReference.Handle(owner));
-                            while (clazz != null) {
-                                //遍历字段，判断是否是transient类型，以确定是否可被序列化
-                                for (ClassReference.Member member : clazz.getMembers()) {
-                                    if (member.getName().equals(name)) {
-                                        isTransient = (member.getModifiers() & Opcodes.ACC_TRANSIENT) != 0;
-                                        break;
-                                    }
-                                }
-                                if (isTransient != null) {
-                                    break;
-                                }
-                                //若找不到字段，则向上父类查找，继续遍历
-                                clazz = classMap.get(new ClassReference.Handle(clazz.getSuperClass()));
-                            }
+                            //若调用的字段可被序列化，则从索引中查找字段（包括继承自父类的字段）是否被标识了transient
+                            isTransient = fieldModifierMap.isTransient(new ClassReference.Handle(owner), name);
                         }
 
                         Set<Integer> taint;
@@ -583,10 +642,9 @@ public class PassthroughDiscovery {
 
 
     public static void main(String[] args) throws Exception {
-        ClassLoader classLoader = Util.getJarClassLoader(Paths.get(args[0]));
-
         PassthroughDiscovery passthroughDiscovery = new PassthroughDiscovery();
-        passthroughDiscovery.discover(new ClassResourceEnumerator(classLoader), new JavaDeserializationConfig());
+        passthroughDiscovery.discover(new JarClassResourceEnumerator(Collections.singletonList(Paths.get(args[0]))),
+            new JavaDeserializationConfig());
         passthroughDiscovery.save();
     }
 }
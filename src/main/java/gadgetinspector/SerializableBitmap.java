@@ -0,0 +1,173 @@
+package gadgetinspector;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import gadgetinspector.config.GIConfig;
+import gadgetinspector.data.ClassReference;
+import gadgetinspector.data.DataFactory;
+import gadgetinspector.data.DataLoader;
+import gadgetinspector.data.InheritanceMap;
+import gadgetinspector.data.MethodReference;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 所有类的决策结果，按类名排序后的下标保存为bitset（serializable-{config}.dat）
+ *
+ * 内置的决策者只依赖类的继承关系、方法集合以及skip list，数据指纹不变时直接复用上次的结果，
+ * 同一份数据切换不同的fuzz类型也不需要重新决策
+ */
+public class SerializableBitmap {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SerializableBitmap.class);
+
+    private final Map<ClassReference.Handle, Integer> classIds;
+    private final BitSet serializable;
+
+    private SerializableBitmap(Map<ClassReference.Handle, Integer> classIds, BitSet serializable) {
+        this.classIds = classIds;
+        this.serializable = serializable;
+    }
+
+    public static Path getPath(GIConfig config) {
+        return Paths.get("serializable-" + config.getName() + ".dat");
+    }
+
+    /**
+     * 加载当前数据的决策结果，文件不存在或数据指纹不一致时对所有类并行决策并保存
+     */
+    public static SerializableBitmap discover(GIConfig config) throws IOException {
+        Map<ClassReference.Handle, ClassReference> classMap = DataLoader.loadClasses();
+        Map<MethodReference.Handle, MethodReference> methodMap = DataLoader.loadMethods();
+
+        List<ClassReference.Handle> classes = new ArrayList<>(classMap.keySet());
+        Collections.sort(classes, (c1, c2) -> c1.getName().compareTo(c2.getName()));
+        Map<ClassReference.Handle, Integer> classIds = new HashMap<>(classes.size() * 2);
+        for (int i = 0; i < classes.size(); i++) {
+            classIds.put(classes.get(i), i);
+        }
+        String fingerprint = fingerprint(config, classMap, methodMap);
+
+        Path path = getPath(config);
+        for (Entry entry : DataLoader.loadData(path, new Factory())) {
+            if (entry.fingerprint.equals(fingerprint) && entry.classCount == classes.size()) {
+                LOGGER.info("Reusing " + path);
+                return new SerializableBitmap(classIds, entry.serializable);
+            }
+        }
+
+        //内置的决策者在初始化完成后只读，可以并行决策
+        InheritanceMap inheritanceMap = InheritanceMap.load();
+        SerializableDecider serializableDecider = config.getSerializableDecider(methodMap, inheritanceMap);
+        BitSet serializable = new BitSet(classes.size());
+        boolean[] decisions = new boolean[classes.size()];
+        IntStream.range(0, classes.size()).parallel()
+            .forEach(i -> decisions[i] = Boolean.TRUE.equals(serializableDecider.apply(classes.get(i))));
+        for (int i = 0; i < decisions.length; i++) {
+            if (decisions[i]) {
+                serializable.set(i);
+            }
+        }
+
+        SerializableBitmap bitmap = new SerializableBitmap(classIds, serializable);
+        DataLoader.saveData(path, new Factory(),
+            Collections.singletonList(new Entry(fingerprint, classes.size(), serializable)));
+        return bitmap;
+    }
+
+    /**
+     * @return 决策结果，不在classes.dat中的类返回null
+     */
+    public Boolean get(ClassReference.Handle clazz) {
+        Integer id = classIds.get(clazz);
+        if (id == null) {
+            return null;
+        }
+        return serializable.get(id);
+    }
+
+    /**
+     * 数据指纹：fuzz类型、类的继承关系、方法签名、skip list，类和方法的hash相加，与文件中的顺序无关
+     */
+    private static String fingerprint(GIConfig config, Map<ClassReference.Handle, ClassReference> classMap,
+                                      Map<MethodReference.Handle, MethodReference> methodMap) throws IOException {
+        //两个long分别累加128位hash的高低位
+        long[] sum = new long[2];
+        for (ClassReference classReference : classMap.values()) {
+            Hasher hasher = Hashing.murmur3_128().newHasher()
+                .putString(classReference.getName(), StandardCharsets.UTF_8).putChar('\t')
+                .putString(String.valueOf(classReference.getSuperClass()), StandardCharsets.UTF_8);
+            for (String anInterface : classReference.getInterfaces()) {
+                hasher.putChar(',').putString(anInterface, StandardCharsets.UTF_8);
+            }
+            add(sum, hasher.hash());
+        }
+        for (MethodReference.Handle method : methodMap.keySet()) {
+            add(sum, Hashing.murmur3_128().newHasher()
+                .putString(method.getClassReference().getName(), StandardCharsets.UTF_8).putChar('\t')
+                .putString(method.getName(), StandardCharsets.UTF_8).putChar('\t')
+                .putString(method.getDesc(), StandardCharsets.UTF_8)
+                .hash());
+        }
+
+        Hasher hasher = Hashing.murmur3_128().newHasher()
+            .putString(config.getName(), StandardCharsets.UTF_8)
+            .putLong(sum[0]).putLong(sum[1])
+            .putInt(classMap.size()).putInt(methodMap.size());
+        if (!ConfigHelper.skipSourcesFile.isEmpty() && Files.exists(Paths.get(ConfigHelper.skipSourcesFile))) {
+            hasher.putBytes(Files.readAllBytes(Paths.get(ConfigHelper.skipSourcesFile)));
+        }
+        return hasher.hash().toString();
+    }
+
+    private static void add(long[] sum, HashCode hashCode) {
+        ByteBuffer buffer = ByteBuffer.wrap(hashCode.asBytes());
+        sum[0] += buffer.getLong();
+        sum[1] += buffer.getLong();
+    }
+
+    private static class Entry {
+        private final String fingerprint;
+        private final int classCount;
+        private final BitSet serializable;
+
+        private Entry(String fingerprint, int classCount, BitSet serializable) {
+            this.fingerprint = fingerprint;
+            this.classCount = classCount;
+            this.serializable = serializable;
+        }
+    }
+
+    /**
+     * 一行：数据指纹 类数量 base64编码的bitset
+     */
+    private static class Factory implements DataFactory<Entry> {
+
+        @Override
+        public Entry parse(String[] fields) {
+            return new Entry(fields[0], Integer.parseInt(fields[1]),
+                BitSet.valueOf(Base64.getDecoder().decode(fields[2])));
+        }
+
+        @Override
+        public String[] serialize(Entry obj) {
+            return new String[]{obj.fingerprint, String.valueOf(obj.classCount),
+                Base64.getEncoder().encodeToString(obj.serializable.toByteArray())};
+        }
+    }
+}
@@ -1,27 +1,41 @@
 package gadgetinspector;
 
+import gadgetinspector.config.GIConfig;
 import gadgetinspector.data.*;
 
 import java.io.IOException;
-import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /* FIXME: This source discovery is limited to standard serializable objects; doesn't do proper source discovery for
  * non-standard Xstream cases. */
 public abstract class SourceDiscovery {
 
+    //并行匹配source规则时每个分区的方法数
+    private static final int RULE_PARTITION_SIZE = 8192;
+
     private final List<Source> discoveredSources = new ArrayList<>();
+    private GIConfig config;
 
     protected final void addDiscoveredSource(Source source) {
         discoveredSources.add(source);
     }
 
-    public void discover() throws IOException {
+    protected final void addDiscoveredSources(Collection<Source> sources) {
+        discoveredSources.addAll(sources);
+    }
+
+    public void discover(GIConfig config) throws IOException {
+        this.config = config;
         //类
         Map<ClassReference.Handle, ClassReference> classMap = DataLoader.loadClasses();
         //方法
@@ -30,7 +44,7 @@ public abstract class SourceDiscovery {
         InheritanceMap inheritanceMap = InheritanceMap.load();
 
         Map<MethodReference.Handle, Set<GraphCall>> graphCallMap = new HashMap<>();
-        for (GraphCall graphCall : DataLoader.loadData(Paths.get("callgraph.dat"), new GraphCall.Factory())) {
+        for (GraphCall graphCall : DataLoader.loadData(config.getDataPath("callgraph.dat"), new GraphCall.Factory())) {
             MethodReference.Handle caller = graphCall.getCallerMethod();
             if (!graphCallMap.containsKey(caller)) {
                 Set<GraphCall> graphCalls = new HashSet<>();
@@ -42,13 +56,80 @@ public abstract class SourceDiscovery {
         }
 
         discover(classMap, methodMap, inheritanceMap, graphCallMap);
+
+        //--rulesFile中的source规则
+        MethodRuleMatcher ruleMatcher = new MethodRuleMatcher(
+            MethodRule.getRules(MethodRule.Type.SOURCE, config), classMap, inheritanceMap);
+        if (!ruleMatcher.isEmpty()) {
+            addDiscoveredSources(matchSourceRules(methodMap.keySet(),
+                Collections.singletonList(new SourceRule(ruleMatcher::matchSource))).get(0));
+        }
     }
 
     public abstract void discover(Map<ClassReference.Handle, ClassReference> classMap,
         Map<MethodReference.Handle, MethodReference> methodMap,
         InheritanceMap inheritanceMap, Map<MethodReference.Handle, Set<GraphCall>> graphCallMap);
 
+    /**
+     * 遍历一次方法集合，按方法名索引匹配所有规则，方法集合分区后并行匹配
+     *
+     * @return 每条规则匹配到的source，顺序与methods的遍历顺序一致
+     */
+    protected static List<List<Source>> matchSourceRules(Collection<MethodReference.Handle> methods, List<SourceRule> rules) {
+        //方法名 -> 规则下标
+        Map<String, List<Integer>> rulesByName = new HashMap<>();
+        //匹配任意方法名的规则下标
+        List<Integer> anyNameRules = new ArrayList<>();
+        for (int i = 0; i < rules.size(); i++) {
+            if (rules.get(i).getNames() == null) {
+                anyNameRules.add(i);
+                continue;
+            }
+            for (String name : rules.get(i).getNames()) {
+                rulesByName.computeIfAbsent(name, k -> new ArrayList<>()).add(i);
+            }
+        }
+
+        List<MethodReference.Handle> methodList = new ArrayList<>(methods);
+        int partitions = (methodList.size() + RULE_PARTITION_SIZE - 1) / RULE_PARTITION_SIZE;
+        List<List<List<Source>>> partitionResults = IntStream.range(0, partitions).parallel()
+            .mapToObj(partition -> {
+                List<List<Source>> result = new ArrayList<>(rules.size());
+                for (int i = 0; i < rules.size(); i++) {
+                    result.add(new ArrayList<>());
+                }
+                int end = Math.min(methodList.size(), (partition + 1) * RULE_PARTITION_SIZE);
+                for (int m = partition * RULE_PARTITION_SIZE; m < end; m++) {
+                    MethodReference.Handle method = methodList.get(m);
+                    List<Integer> namedRules = rulesByName.getOrDefault(method.getName(), Collections.emptyList());
+                    for (List<Integer> ruleIndexes : Arrays.asList(namedRules, anyNameRules)) {
+                        for (int ruleIndex : ruleIndexes) {
+                            int[] taintedArgs = rules.get(ruleIndex).match(method);
+                            if (taintedArgs == null) {
+                                continue;
+                            }
+                            for (int taintedArg : taintedArgs) {
+                                result.get(ruleIndex).add(new Source(method, taintedArg));
+                            }
+                        }
+                    }
+                }
+                return result;
+            })
+            .collect(Collectors.toList());
+
+        List<List<Source>> sources = new ArrayList<>(rules.size());
+        for (int i = 0; i < rules.size(); i++) {
+            List<Source> ruleSources = new ArrayList<>();
+            for (List<List<Source>> partitionResult : partitionResults) {
+                ruleSources.addAll(partitionResult.get(i));
+            }
+            sources.add(ruleSources);
+        }
+        return sources;
+    }
+
     public void save() throws IOException {
-        DataLoader.saveData(Paths.get("sources.dat"), new Source.Factory(), discoveredSources);
+        DataLoader.saveData(config.getDataPath("sources.dat"), new Source.Factory(), discoveredSources);
     }
 }
@@ -0,0 +1,38 @@
+package gadgetinspector;
+
+import gadgetinspector.data.MethodReference;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * source规则：方法名匹配时调用matcher判断方法是否为source，返回可控的参数下标
+ *
+ * 规则按方法名建立索引，方法名不匹配的规则不会被调用，见{@link SourceDiscovery#matchSourceRules}
+ */
+public class SourceRule {
+
+    //匹配的方法名，null表示匹配任意方法名
+    private final Set<String> names;
+    //方法 -> 可控的参数下标，不是source时返回null
+    private final Function<MethodReference.Handle, int[]> matcher;
+
+    /**
+     * @param matcher 方法 -> 可控的参数下标，不是source时返回null
+     * @param names   匹配的方法名，不填表示匹配任意方法名
+     */
+    public SourceRule(Function<MethodReference.Handle, int[]> matcher, String... names) {
+        this.names = names.length == 0 ? null : Collections.unmodifiableSet(new HashSet<>(Arrays.asList(names)));
+        this.matcher = matcher;
+    }
+
+    public Set<String> getNames() {
+        return names;
+    }
+
+    public int[] match(MethodReference.Handle method) {
+        return matcher.apply(method);
+    }
+}
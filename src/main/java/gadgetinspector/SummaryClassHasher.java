@@ -0,0 +1,91 @@
+package gadgetinspector;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import gadgetinspector.data.ClassReference;
+import gadgetinspector.data.FieldModifierMap;
+import gadgetinspector.data.InheritanceMap;
+import gadgetinspector.data.SummaryCache;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+/**
+ * 摘要缓存（--summaryCache）中类的hash：字节码hash + 分析该类时读取的类外信息
+ *
+ * passthrough、callgraph的结果除了字节码和被调用方法的摘要，还取决于GETFIELD的字段类型是否可能被序列化
+ * （serializableDecider、子类）、字段（包括继承的字段）是否transient、调用的实例方法所属类是否为Collection/Map，
+ * 新增或修改jar时这些信息可能变化，都计入hash，变化时不命中缓存
+ */
+class SummaryClassHasher {
+
+    private static final ClassReference.Handle COLLECTION = new ClassReference.Handle("java/util/Collection");
+    private static final ClassReference.Handle MAP = new ClassReference.Handle("java/util/Map");
+
+    private final FieldModifierMap fieldModifierMap;
+    private final InheritanceMap inheritanceMap;
+    private final SerializableDecider serializableDecider;
+    //类型 -> couldBeSerialized，同一类型只判断一次（需要遍历所有子类）
+    private final Map<ClassReference.Handle, Boolean> serializable = new HashMap<>();
+
+    SummaryClassHasher(FieldModifierMap fieldModifierMap, InheritanceMap inheritanceMap,
+        SerializableDecider serializableDecider) {
+        this.fieldModifierMap = fieldModifierMap;
+        this.inheritanceMap = inheritanceMap;
+        this.serializableDecider = serializableDecider;
+    }
+
+    String hash(byte[] bytes) {
+        //与TaintTrackingMethodVisitor、PassthroughDiscovery、CallGraphDiscovery中读取的信息一一对应
+        Set<String> facts = new TreeSet<>();
+        new ClassReader(bytes).accept(new ClassVisitor(Opcodes.ASM6) {
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String desc, String signature,
+                String[] exceptions) {
+                return new MethodVisitor(Opcodes.ASM6) {
+                    @Override
+                    public void visitFieldInsn(int opcode, String owner, String name, String desc) {
+                        Type type = Type.getType(desc);
+                        if (opcode != Opcodes.GETFIELD || type.getSize() != 1) {
+                            return;
+                        }
+                        ClassReference.Handle fieldType = new ClassReference.Handle(type.getInternalName());
+                        facts.add("F " + owner + "." + name + " " + couldBeSerialized(fieldType) + " "
+                            + fieldModifierMap.isTransient(new ClassReference.Handle(owner), name));
+                    }
+
+                    @Override
+                    public void visitMethodInsn(int opcode, String owner, String name, String desc, boolean itf) {
+                        Type ownerType = Type.getObjectType(owner);
+                        if (opcode == Opcodes.INVOKESTATIC || ownerType.getSort() != Type.OBJECT) {
+                            return;
+                        }
+                        Set<ClassReference.Handle> parents = inheritanceMap.getSuperClasses(
+                            new ClassReference.Handle(ownerType.getClassName().replace('.', '/')));
+                        facts.add("C " + owner + " "
+                            + (parents != null && (parents.contains(COLLECTION) || parents.contains(MAP))));
+                    }
+                };
+            }
+        }, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        hasher.putString(SummaryCache.hashClass(bytes), StandardCharsets.UTF_8);
+        for (String fact : facts) {
+            hasher.putChar('\n').putString(fact, StandardCharsets.UTF_8);
+        }
+        return hasher.hash().toString();
+    }
+
+    private boolean couldBeSerialized(ClassReference.Handle clazz) {
+        return serializable.computeIfAbsent(clazz,
+            handle -> TaintTrackingMethodVisitor.couldBeSerialized(serializableDecider, inheritanceMap, handle));
+    }
+}
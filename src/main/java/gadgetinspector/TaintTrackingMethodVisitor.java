@@ -5,6 +5,14 @@ import gadgetinspector.data.InheritanceMap;
 import gadgetinspector.data.MethodReference;
 import org.objectweb.asm.*;
 import org.objectweb.asm.commons.AnalyzerAdapter;
+import org.objectweb.asm.commons.JSRInlinerAdapter;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LookupSwitchInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TableSwitchInsnNode;
+import org.objectweb.asm.tree.TryCatchBlockNode;
 
 import java.util.*;
 
@@ -61,6 +69,10 @@ public class TaintTrackingMethodVisitor<T> extends MethodVisitor {
 
     };
 
+    /**
+     * Frame state. Sets referenced by a state stored in gotoStates are {@link SharedTaintSet}s and are never
+     * mutated, so states can share them freely; the live state copies a shared set only before modifying it.
+     */
     private static class SavedVariableState<T> {
         List<Set<T>> localVars;
         List<Set<T>> stackVars;
@@ -71,33 +83,145 @@ public class TaintTrackingMethodVisitor<T> extends MethodVisitor {
         }
 
         public SavedVariableState(SavedVariableState<T> copy) {
-            this.localVars = new ArrayList<>(copy.localVars.size());
-            this.stackVars = new ArrayList<>(copy.stackVars.size());
+            // Shallow copy; shared sets are copied on write by the owning visitor
+            this.localVars = new ArrayList<>(copy.localVars);
+            this.stackVars = new ArrayList<>(copy.stackVars);
+        }
 
-            for (Set<T> original : copy.localVars) {
-                this.localVars.add(new HashSet<>(original));
+        /**
+         * Returns an immutable snapshot of this state. Sets that are already shared are reused as is, and
+         * slots holding the same set keep holding the same (copied) set in the snapshot.
+         */
+        public SavedVariableState<T> snapshot() {
+            Map<Set<T>, Set<T>> copies = new IdentityHashMap<>();
+            SavedVariableState<T> snapshot = new SavedVariableState<>();
+            snapshot.localVars = freeze(localVars, copies);
+            snapshot.stackVars = freeze(stackVars, copies);
+            return snapshot;
+        }
+
+        private static <T> List<Set<T>> freeze(List<Set<T>> vars, Map<Set<T>, Set<T>> copies) {
+            List<Set<T>> frozen = new ArrayList<>(vars.size());
+            for (Set<T> values : vars) {
+                if (values instanceof SharedTaintSet) {
+                    frozen.add(values);
+                } else if (values.isEmpty()) {
+                    frozen.add(SharedTaintSet.<T>empty());
+                } else {
+                    frozen.add(copies.computeIfAbsent(values, v -> new SharedTaintSet<>(new HashSet<>(v))));
+                }
             }
-            for (Set<T> original : copy.stackVars) {
-                this.stackVars.add(new HashSet<>(original));
+            return frozen;
+        }
+
+        /**
+         * Merges two snapshots. Returns {@code existing} itself when {@code incoming} adds nothing, otherwise a new
+         * snapshot that only allocates for the slots that actually differ.
+         */
+        public static <T> SavedVariableState<T> merge(SavedVariableState<T> existing, SavedVariableState<T> incoming) {
+            if (existing == incoming) {
+                return existing;
+            }
+            List<Set<T>> localVars = merge(existing.localVars, incoming.localVars);
+            List<Set<T>> stackVars = merge(existing.stackVars, incoming.stackVars);
+            if (localVars == existing.localVars && stackVars == existing.stackVars) {
+                return existing;
             }
+            SavedVariableState<T> merged = new SavedVariableState<>();
+            merged.localVars = localVars;
+            merged.stackVars = stackVars;
+            return merged;
         }
 
-        public void combine(SavedVariableState<T> copy) {
-            for (int i = 0; i < copy.localVars.size(); i++) {
-                while (i >= this.localVars.size()) {
-                    this.localVars.add(new HashSet<T>());
+        private static <T> List<Set<T>> merge(List<Set<T>> existing, List<Set<T>> incoming) {
+            List<Set<T>> merged = null;
+            for (int i = 0; i < incoming.size(); i++) {
+                Set<T> in = incoming.get(i);
+                Set<T> current = i < existing.size() ? existing.get(i) : null;
+                Set<T> result;
+                if (current == null) {
+                    result = in;
+                } else if (current == in || in.isEmpty() || current.containsAll(in)) {
+                    continue;
+                } else if (current.isEmpty()) {
+                    result = in;
+                } else {
+                    Set<T> union = new HashSet<>(current);
+                    union.addAll(in);
+                    result = new SharedTaintSet<>(union);
                 }
-                this.localVars.get(i).addAll(copy.localVars.get(i));
-            }
-            for (int i = 0; i < copy.stackVars.size(); i++) {
-                while (i >= this.stackVars.size()) {
-                    this.stackVars.add(new HashSet<T>());
+                if (merged == null) {
+                    merged = new ArrayList<>(existing);
+                }
+                if (i < merged.size()) {
+                    merged.set(i, result);
+                } else {
+                    merged.add(result);
                 }
-                this.stackVars.get(i).addAll(copy.stackVars.get(i));
             }
+            return merged == null ? existing : merged;
         }
     }
 
+    /**
+     * Read-only taint set referenced from saved frame states.
+     */
+    private static final class SharedTaintSet<T> extends AbstractSet<T> {
+        private static final SharedTaintSet<Object> EMPTY = new SharedTaintSet<>(Collections.emptySet());
+
+        private final Set<T> values;
+
+        // Takes ownership of values
+        private SharedTaintSet(Set<T> values) {
+            this.values = values;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <T> SharedTaintSet<T> empty() {
+            return (SharedTaintSet<T>) EMPTY;
+        }
+
+        @Override
+        public Iterator<T> iterator() {
+            return Collections.unmodifiableSet(values).iterator();
+        }
+
+        @Override
+        public int size() {
+            return values.size();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return values.contains(o);
+        }
+    }
+
+    // Upper bound on how often the fixed-point mode re-analyzes a single basic block. Field paths such as
+    // "arg0.next.next..." can grow on every loop iteration, so the iteration is not guaranteed to converge otherwise.
+    // Blocks that reach the bound get one final visit once the worklist is empty (see visitFixedPoint).
+    private static final int MAX_BLOCK_VISITS = 16;
+
+    /**
+     * Returns the method visitor to hand back from {@code ClassVisitor.visitMethod}. By default the method is analyzed in
+     * a single linear pass; with {@link ConfigHelper#taintFixedPoint} it is buffered and analyzed to a fixed point over
+     * its basic blocks.
+     */
+    public static MethodVisitor adapt(final TaintTrackingMethodVisitor<?> visitor, int access, String name, String desc,
+                                      String signature, String[] exceptions) {
+        if (!ConfigHelper.taintFixedPoint) {
+            return new JSRInlinerAdapter(visitor, access, name, desc, signature, exceptions);
+        }
+        return new JSRInlinerAdapter(Opcodes.ASM6, null, access, name, desc, signature, exceptions) {
+            @Override
+            public void visitEnd() {
+                // Inlines subroutines only, since no delegate visitor is set
+                super.visitEnd();
+                visitor.visitFixedPoint(this);
+            }
+        };
+    }
+
     private final InheritanceMap inheritanceMap;
     private final Map<MethodReference.Handle, Set<Integer>> passthroughDataflow;
 
@@ -107,6 +231,8 @@ public class TaintTrackingMethodVisitor<T> extends MethodVisitor {
     private final String desc;
     private final String signature;
     private final String[] exceptions;
+    // Set when a block of this method reached MAX_BLOCK_VISITS in the fixed-point mode
+    private boolean visitLimitHit;
 
     public TaintTrackingMethodVisitor(InheritanceMap inheritanceMap,
                                       Map<MethodReference.Handle, Set<Integer>> passthroughDataflow,
@@ -126,6 +252,8 @@ public class TaintTrackingMethodVisitor<T> extends MethodVisitor {
     private SavedVariableState<T> savedVariableState = new SavedVariableState<T>();
     private Map<Label, SavedVariableState<T>> gotoStates = new HashMap<Label, SavedVariableState<T>>();
     private Set<Label> exceptionHandlerLabels = new HashSet<Label>();
+    // Labels whose saved state changed; only tracked in fixed-point mode
+    private List<Label> changedLabels;
 
     @Override
     public void visitCode() {
@@ -683,6 +811,7 @@ public class TaintTrackingMethodVisitor<T> extends MethodVisitor {
                     //如果被调用的方法是构造方法，则直接通过对象污染
                     // Pass result taint through to original taint set; the initialized object is directly tainted by
                     // parameters
+                    argTaint.set(0, unshare(argTaint.get(0)));
                     resultTaint = argTaint.get(0);
                 } else {
                     resultTaint = new HashSet<>();
@@ -691,7 +820,7 @@ public class TaintTrackingMethodVisitor<T> extends MethodVisitor {
                 //污染例外关联，不通过参数关联
                 // If calling defaultReadObject on a tainted ObjectInputStream, that taint passes to "this"
                 if (owner.equals("java/io/ObjectInputStream") && name.equals("defaultReadObject") && desc.equals("()V")) {
-                    savedVariableState.localVars.get(0).addAll(argTaint.get(0));
+                    getLocalTaint(0).addAll(argTaint.get(0));
                 }
 
                 //todo 3 在名单内的方法的调用，已预置哪个参数可以污染返回值
@@ -723,6 +852,7 @@ public class TaintTrackingMethodVisitor<T> extends MethodVisitor {
                     if (parents != null && (parents.contains(new ClassReference.Handle("java/util/Collection")) ||
                             parents.contains(new ClassReference.Handle("java/util/Map")))) {
                         //如果该类为集合类，则存储的所有元素都是污染
+                        argTaint.set(0, unshare(argTaint.get(0)));
                         for (int i = 1; i < argTaint.size(); i++) {
                             argTaint.get(0).addAll(argTaint.get(i));
                         }
@@ -803,7 +933,7 @@ public class TaintTrackingMethodVisitor<T> extends MethodVisitor {
                 throw new IllegalStateException("Unsupported opcode: " + opcode);
         }
 
-        mergeGotoState(label, savedVariableState);
+        mergeGotoState(label, savedVariableState.snapshot());
 
         super.visitJumpInsn(opcode, label);
 
@@ -813,7 +943,7 @@ public class TaintTrackingMethodVisitor<T> extends MethodVisitor {
     @Override
     public void visitLabel(Label label) {
         if (gotoStates.containsKey(label)) {
-            savedVariableState = new SavedVariableState(gotoStates.get(label));
+            savedVariableState = new SavedVariableState<>(gotoStates.get(label));
         }
         if (exceptionHandlerLabels.contains(label)) {
             // Add the exception to the stack
@@ -852,10 +982,11 @@ public class TaintTrackingMethodVisitor<T> extends MethodVisitor {
         // Operand stack has a switch index which gets popped
         pop();
 
-        // Save the current state with any possible target labels
-        mergeGotoState(dflt, savedVariableState);
+        // Save the current state with any possible target labels; all targets share one snapshot
+        SavedVariableState<T> snapshot = savedVariableState.snapshot();
+        mergeGotoState(dflt, snapshot);
         for (Label label : labels) {
-            mergeGotoState(label, savedVariableState);
+            mergeGotoState(label, snapshot);
         }
 
         super.visitTableSwitchInsn(min, max, dflt, labels);
@@ -868,10 +999,11 @@ public class TaintTrackingMethodVisitor<T> extends MethodVisitor {
         // Operand stack has a lookup index which gets popped
         pop();
 
-        // Save the current state with any possible target labels
-        mergeGotoState(dflt, savedVariableState);
+        // Save the current state with any possible target labels; all targets share one snapshot
+        SavedVariableState<T> snapshot = savedVariableState.snapshot();
+        mergeGotoState(dflt, snapshot);
         for (Label label : labels) {
-            mergeGotoState(label, savedVariableState);
+            mergeGotoState(label, snapshot);
         }
         super.visitLookupSwitchInsn(dflt, keys, labels);
 
@@ -916,13 +1048,202 @@ public class TaintTrackingMethodVisitor<T> extends MethodVisitor {
         super.visitEnd();
     }
 
-    private void mergeGotoState(Label label, SavedVariableState savedVariableState) {
-        if (gotoStates.containsKey(label)) {
-            SavedVariableState combinedState = new SavedVariableState(gotoStates.get(label));
-            combinedState.combine(savedVariableState);
-            gotoStates.put(label, combinedState);
-        } else {
-            gotoStates.put(label, new SavedVariableState(savedVariableState));
+    private void mergeGotoState(Label label, SavedVariableState<T> snapshot) {
+        SavedVariableState<T> existing = gotoStates.get(label);
+        SavedVariableState<T> merged = existing == null ? snapshot : SavedVariableState.merge(existing, snapshot);
+        if (merged != existing) {
+            gotoStates.put(label, merged);
+            if (changedLabels != null) {
+                changedLabels.add(label);
+            }
+        }
+    }
+
+    /**
+     * Analyzes {@code method} with a worklist over its basic blocks until the saved states at all block entries are
+     * stable. Unlike the single pass, taint that reaches a backward branch target after the target has been visited is
+     * propagated, and states falling through into a branch target are merged rather than replaced. Only blocks whose
+     * entry state changed are analyzed again.
+     *
+     * <p>A block that reaches {@link #MAX_BLOCK_VISITS} is set aside instead of being re-analyzed. Once the worklist
+     * is empty, the set-aside blocks are analyzed one final time with their entry states, which by then hold all the
+     * taint that reached them, and every block may run once more to propagate the result. Changes after that are
+     * dropped; {@link #hitVisitLimit()} reports that the method reached the bound.
+     */
+    private void visitFixedPoint(MethodNode method) {
+        AbstractInsnNode[] insns = method.instructions.toArray();
+
+        // Basic blocks start at the method entry and at every branch target or exception handler
+        Set<LabelNode> entryLabels = new HashSet<>();
+        for (AbstractInsnNode insn : insns) {
+            if (insn instanceof JumpInsnNode) {
+                entryLabels.add(((JumpInsnNode) insn).label);
+            } else if (insn instanceof TableSwitchInsnNode) {
+                entryLabels.add(((TableSwitchInsnNode) insn).dflt);
+                entryLabels.addAll(((TableSwitchInsnNode) insn).labels);
+            } else if (insn instanceof LookupSwitchInsnNode) {
+                entryLabels.add(((LookupSwitchInsnNode) insn).dflt);
+                entryLabels.addAll(((LookupSwitchInsnNode) insn).labels);
+            }
+        }
+        for (TryCatchBlockNode tryCatchBlock : method.tryCatchBlocks) {
+            entryLabels.add(tryCatchBlock.handler);
+        }
+
+        List<Integer> blockStarts = new ArrayList<>();
+        Map<Label, Integer> blockByLabel = new HashMap<>();
+        blockStarts.add(0);
+        for (int i = 0; i < insns.length; i++) {
+            if (entryLabels.contains(insns[i])) {
+                if (i > 0) {
+                    blockStarts.add(i);
+                }
+                blockByLabel.put(((LabelNode) insns[i]).getLabel(), blockStarts.size() - 1);
+            }
+        }
+        int blockCount = blockStarts.size();
+        blockStarts.add(insns.length);
+
+        boolean[] fallsThrough = new boolean[blockCount];
+        for (int b = 0; b < blockCount; b++) {
+            fallsThrough[b] = true;
+            for (int i = blockStarts.get(b + 1) - 1; i >= blockStarts.get(b); i--) {
+                int opcode = insns[i].getOpcode();
+                if (opcode >= 0) {
+                    fallsThrough[b] = opcode != Opcodes.GOTO && opcode != Opcodes.ATHROW && opcode != Opcodes.RET
+                            && opcode != Opcodes.TABLESWITCH && opcode != Opcodes.LOOKUPSWITCH
+                            && (opcode < Opcodes.IRETURN || opcode > Opcodes.RETURN);
+                    break;
+                }
+            }
+        }
+
+        // Handlers whose protected range overlaps each block
+        List<List<Label>> handlersByBlock = new ArrayList<>(blockCount);
+        for (int b = 0; b < blockCount; b++) {
+            handlersByBlock.add(new ArrayList<>());
+        }
+        for (TryCatchBlockNode tryCatchBlock : method.tryCatchBlocks) {
+            int start = method.instructions.indexOf(tryCatchBlock.start);
+            int end = method.instructions.indexOf(tryCatchBlock.end);
+            for (int b = 0; b < blockCount; b++) {
+                if (blockStarts.get(b) < end && start < blockStarts.get(b + 1)) {
+                    handlersByBlock.get(b).add(tryCatchBlock.handler.getLabel());
+                }
+            }
+        }
+
+        changedLabels = new ArrayList<>();
+        visitCode();
+        for (TryCatchBlockNode tryCatchBlock : method.tryCatchBlocks) {
+            tryCatchBlock.accept(this);
+        }
+        SavedVariableState<T> initialState = savedVariableState.snapshot();
+        boolean entryIsLabel = insns.length > 0 && entryLabels.contains(insns[0]);
+        if (entryIsLabel) {
+            mergeGotoState(((LabelNode) insns[0]).getLabel(), initialState);
+        }
+
+        BitSet pending = new BitSet(blockCount);
+        BitSet capped = new BitSet(blockCount);
+        int[] visits = new int[blockCount];
+        int visitLimit = MAX_BLOCK_VISITS;
+        pending.set(0);
+        boolean firstBlock = true;
+        for (;;) {
+            int b = pending.nextSetBit(0);
+            if (b < 0) {
+                if (capped.isEmpty() || visitLimit > MAX_BLOCK_VISITS) {
+                    break;
+                }
+                // Final pass over the blocks that reached the bound
+                visitLimitHit = true;
+                visitLimit++;
+                pending.or(capped);
+                continue;
+            }
+            pending.clear(b);
+            if (visits[b] >= visitLimit) {
+                capped.set(b);
+                continue;
+            }
+            visits[b]++;
+            if (!firstBlock) {
+                // The analyzer's frame belongs to whatever block ran last; it resyncs at the frame following the label
+                analyzerAdapter.locals = null;
+                analyzerAdapter.stack = null;
+            }
+            firstBlock = false;
+            if (b == 0 && !entryIsLabel) {
+                savedVariableState = new SavedVariableState<>(initialState);
+            }
+            changedLabels.clear();
+
+            SavedVariableState<T> entryState = null;
+            for (int i = blockStarts.get(b); i < blockStarts.get(b + 1); i++) {
+                insns[i].accept(this);
+                if (entryState == null) {
+                    entryState = savedVariableState.snapshot();
+                }
+            }
+            SavedVariableState<T> exitState = savedVariableState.snapshot();
+            if (fallsThrough[b] && b + 1 < blockCount) {
+                mergeGotoState(((LabelNode) insns[blockStarts.get(b + 1)]).getLabel(), exitState);
+            }
+            for (Label handler : handlersByBlock.get(b)) {
+                // Exception handlers start with an empty stack (the exception is pushed by visitLabel)
+                mergeGotoState(handler, withoutStack(entryState));
+                mergeGotoState(handler, withoutStack(exitState));
+            }
+
+            for (Label label : changedLabels) {
+                Integer target = blockByLabel.get(label);
+                if (target != null) {
+                    pending.set(target);
+                }
+            }
+        }
+        changedLabels = null;
+
+        visitMaxs(method.maxStack, method.maxLocals);
+        visitEnd();
+    }
+
+    /**
+     * Returns whether the fixed-point mode reached {@link #MAX_BLOCK_VISITS} for some block of this method, in which
+     * case taint that only arrives after the final pass is not tracked.
+     */
+    public boolean hitVisitLimit() {
+        return visitLimitHit;
+    }
+
+    private static <T> SavedVariableState<T> withoutStack(SavedVariableState<T> snapshot) {
+        SavedVariableState<T> state = new SavedVariableState<>();
+        state.localVars = snapshot.localVars;
+        return state;
+    }
+
+    /**
+     * Returns a set that is safe to modify in place. If {@code values} is shared with a saved state, every slot of the
+     * current state that refers to it is switched to the same private copy, so aliasing between slots is preserved.
+     */
+    private Set<T> unshare(Set<T> values) {
+        if (!(values instanceof SharedTaintSet)) {
+            return values;
+        }
+        Set<T> copy = new HashSet<>(values);
+        if (values != SharedTaintSet.empty()) {
+            replaceAll(savedVariableState.localVars, values, copy);
+            replaceAll(savedVariableState.stackVars, values, copy);
+        }
+        return copy;
+    }
+
+    private static <T> void replaceAll(List<Set<T>> vars, Set<T> from, Set<T> to) {
+        for (int i = 0; i < vars.size(); i++) {
+            if (vars.get(i) == from) {
+                vars.set(i, to);
+            }
         }
     }
 
@@ -934,7 +1255,10 @@ public class TaintTrackingMethodVisitor<T> extends MethodVisitor {
 
     protected Set<T> getStackTaint(int index) {
         //出栈，index=0为栈顶
-        return savedVariableState.stackVars.get(savedVariableState.stackVars.size()-1-index);
+        int i = savedVariableState.stackVars.size()-1-index;
+        Set<T> values = unshare(savedVariableState.stackVars.get(i));
+        savedVariableState.stackVars.set(i, values);
+        return values;
     }
 
     protected void setStackTaint(int index, T ... possibleValues) {
@@ -953,7 +1277,9 @@ public class TaintTrackingMethodVisitor<T> extends MethodVisitor {
     }
 
     protected Set<T> getLocalTaint(int index) {
-        return savedVariableState.localVars.get(index);
+        Set<T> values = unshare(savedVariableState.localVars.get(index));
+        savedVariableState.localVars.set(index, values);
+        return values;
     }
 
     protected void setLocalTaint(int index, T ... possibleValues) {
@@ -971,6 +1297,10 @@ public class TaintTrackingMethodVisitor<T> extends MethodVisitor {
     }
 
     protected static final boolean couldBeSerialized(SerializableDecider serializableDecider, InheritanceMap inheritanceMap, ClassReference.Handle clazz) {
+        //生成jdk摘要包时只扫描了jdk，应用中可能存在可序列化的子类，只能认为所有类型都可能被序列化
+        if (ConfigHelper.buildJdkBundle) {
+            return true;
+        }
         if (Boolean.TRUE.equals(serializableDecider.apply(clazz))) {
             return true;
         }
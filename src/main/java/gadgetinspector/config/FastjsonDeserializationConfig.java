@@ -1,5 +1,6 @@
 package gadgetinspector.config;
 
+import gadgetinspector.CachingSerializableDecider;
 import gadgetinspector.ImplementationFinder;
 import gadgetinspector.SerializableDecider;
 import gadgetinspector.SlinkDiscovery;
@@ -23,7 +24,7 @@ public class FastjsonDeserializationConfig implements GIConfig {
 
     @Override
     public SerializableDecider getSerializableDecider(Map<MethodReference.Handle, MethodReference> methodMap, InheritanceMap inheritanceMap) {
-        return new FastjsonSerializableDecider(methodMap);
+        return CachingSerializableDecider.wrap(getName(), () -> new FastjsonSerializableDecider(methodMap));
     }
 
     @Override
@@ -1,5 +1,6 @@
 package gadgetinspector.config;
 
+import gadgetinspector.ConfigHelper;
 import gadgetinspector.ImplementationFinder;
 import gadgetinspector.SerializableDecider;
 import gadgetinspector.SlinkDiscovery;
@@ -9,6 +10,8 @@ import gadgetinspector.data.InheritanceMap;
 import gadgetinspector.data.MethodReference;
 
 import gadgetinspector.data.MethodReference.Handle;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Map;
 import java.util.Set;
 
@@ -23,4 +26,11 @@ public interface GIConfig {
         Map<ClassReference.Handle, Set<Handle>> methodsByClass);
     SourceDiscovery getSourceDiscovery();
     SlinkDiscovery getSlinkDiscovery();
+
+    /**
+     * 与fuzz类型相关的dat文件（passthrough、callgraph、sources、methodimpl），同时挖掘多种类型时文件名加上类型前缀
+     */
+    default Path getDataPath(String datFile) {
+        return ConfigHelper.multiConfig ? Paths.get(getName() + "-" + datFile) : Paths.get(datFile);
+    }
 }
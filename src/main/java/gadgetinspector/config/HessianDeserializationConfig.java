@@ -1,5 +1,6 @@
 package gadgetinspector.config;
 
+import gadgetinspector.CachingSerializableDecider;
 import gadgetinspector.ImplementationFinder;
 import gadgetinspector.SerializableDecider;
 import gadgetinspector.SlinkDiscovery;
@@ -23,7 +24,7 @@ public class HessianDeserializationConfig implements GIConfig {
 
     @Override
     public SerializableDecider getSerializableDecider(Map<MethodReference.Handle, MethodReference> methodMap, InheritanceMap inheritanceMap) {
-        return new HessianSerializableDecider(inheritanceMap);
+        return CachingSerializableDecider.wrap(getName(), () -> new HessianSerializableDecider(inheritanceMap));
     }
 
     @Override
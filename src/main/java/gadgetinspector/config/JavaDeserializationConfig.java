@@ -1,5 +1,6 @@
 package gadgetinspector.config;
 
+import gadgetinspector.CachingSerializableDecider;
 import gadgetinspector.ImplementationFinder;
 import gadgetinspector.SerializableDecider;
 import gadgetinspector.SlinkDiscovery;
@@ -24,7 +25,7 @@ public class JavaDeserializationConfig implements GIConfig {
 
     @Override
     public SerializableDecider getSerializableDecider(Map<MethodReference.Handle, MethodReference> methodMap, InheritanceMap inheritanceMap) {
-        return new SimpleSerializableDecider(inheritanceMap);
+        return CachingSerializableDecider.wrap(getName(), () -> new SimpleSerializableDecider(inheritanceMap));
     }
 
     @Override
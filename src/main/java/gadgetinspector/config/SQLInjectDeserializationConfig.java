@@ -1,5 +1,6 @@
 package gadgetinspector.config;
 
+import gadgetinspector.CachingSerializableDecider;
 import gadgetinspector.ImplementationFinder;
 import gadgetinspector.SerializableDecider;
 import gadgetinspector.SlinkDiscovery;
@@ -24,7 +25,7 @@ public class SQLInjectDeserializationConfig implements GIConfig {
 
     @Override
     public SerializableDecider getSerializableDecider(Map<MethodReference.Handle, MethodReference> methodMap, InheritanceMap inheritanceMap) {
-        return new SQLInjectSerializableDecider(methodMap);
+        return CachingSerializableDecider.wrap(getName(), () -> new SQLInjectSerializableDecider(methodMap));
     }
 
     @Override
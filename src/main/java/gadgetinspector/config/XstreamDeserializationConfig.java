@@ -1,5 +1,6 @@
 package gadgetinspector.config;
 
+import gadgetinspector.CachingSerializableDecider;
 import gadgetinspector.ImplementationFinder;
 import gadgetinspector.SerializableDecider;
 import gadgetinspector.SlinkDiscovery;
@@ -22,7 +23,7 @@ public class XstreamDeserializationConfig implements GIConfig {
     }
 
     public SerializableDecider getSerializableDecider(Map<MethodReference.Handle, MethodReference> methodMap, InheritanceMap inheritanceMap) {
-        return new XstreamSerializableDecider();
+        return CachingSerializableDecider.wrap(getName(), () -> new XstreamSerializableDecider());
     }
 
     @Override
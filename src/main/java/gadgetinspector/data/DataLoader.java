@@ -1,9 +1,12 @@
 package gadgetinspector.data;
 
+import com.google.common.io.CharStreams;
 import com.google.common.io.Files;
 
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -15,6 +18,18 @@ public class DataLoader {
             return Collections.EMPTY_LIST;
         }
         final List<String> lines = Files.readLines(filePath.toFile(), StandardCharsets.UTF_8);
+        return parseLines(lines, factory);
+    }
+
+    /**
+     * 从输入流读取数据，用于读取压缩包内的dat文件，不会关闭输入流
+     */
+    public static <T> List<T> loadData(InputStream in, DataFactory<T> factory) throws IOException {
+        final List<String> lines = CharStreams.readLines(new InputStreamReader(in, StandardCharsets.UTF_8));
+        return parseLines(lines, factory);
+    }
+
+    private static <T> List<T> parseLines(List<String> lines, DataFactory<T> factory) {
         final List<T> values = new ArrayList<T>(lines.size());
         for (String line : lines) {
             values.add(factory.parse(line.split("\t", -1)));
@@ -0,0 +1,76 @@
+package gadgetinspector.data;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * (类, 字段名) -> 字段修饰符 的索引，包含从父类继承的字段
+ *
+ * 替代每次GETFIELD时沿父类链线性扫描members，构建一次后查找为O(1)
+ */
+public class FieldModifierMap {
+    //类 -> {字段名:修饰符}，子类没有声明新字段时直接复用父类的Map
+    private final Map<ClassReference.Handle, Map<String, Integer>> fieldModifiers;
+
+    private FieldModifierMap(Map<ClassReference.Handle, Map<String, Integer>> fieldModifiers) {
+        this.fieldModifiers = fieldModifiers;
+    }
+
+    public static FieldModifierMap derive(Map<ClassReference.Handle, ClassReference> classMap) {
+        Map<ClassReference.Handle, Map<String, Integer>> fieldModifiers = new HashMap<>(classMap.size());
+        Deque<ClassReference> pending = new ArrayDeque<>();
+        for (ClassReference classReference : classMap.values()) {
+            if (fieldModifiers.containsKey(classReference.getHandle())) {
+                continue;
+            }
+            //先沿父类链找到第一个已计算（或不存在）的父类，再自顶向下合并，避免递归过深
+            ClassReference clazz = classReference;
+            while (clazz != null && !fieldModifiers.containsKey(clazz.getHandle()) && !pending.contains(clazz)) {
+                pending.push(clazz);
+                clazz = clazz.getSuperClass() == null ? null : classMap.get(new ClassReference.Handle(clazz.getSuperClass()));
+            }
+            Map<String, Integer> inherited = clazz == null ? Collections.emptyMap()
+                : fieldModifiers.getOrDefault(clazz.getHandle(), Collections.emptyMap());
+            while (!pending.isEmpty()) {
+                clazz = pending.pop();
+                Map<String, Integer> fields = inherited;
+                if (clazz.getMembers().length > 0) {
+                    fields = new HashMap<>(inherited);
+                    //子类字段会隐藏同名的父类字段
+                    for (ClassReference.Member member : clazz.getMembers()) {
+                        fields.put(member.getName(), member.getModifiers());
+                    }
+                }
+                fieldModifiers.put(clazz.getHandle(), fields);
+                inherited = fields;
+            }
+        }
+        return new FieldModifierMap(fieldModifiers);
+    }
+
+    /**
+     * @return 字段修饰符，类或字段不存在时返回null
+     */
+    public Integer getModifiers(ClassReference.Handle clazz, String fieldName) {
+        Map<String, Integer> fields = fieldModifiers.get(clazz);
+        if (fields == null) {
+            return null;
+        }
+        return fields.get(fieldName);
+    }
+
+    /**
+     * @return 字段是否为transient，类或字段不存在时返回null
+     */
+    public Boolean isTransient(ClassReference.Handle clazz, String fieldName) {
+        Integer modifiers = getModifiers(clazz, fieldName);
+        if (modifiers == null) {
+            return null;
+        }
+        return (modifiers & Opcodes.ACC_TRANSIENT) != 0;
+    }
+}
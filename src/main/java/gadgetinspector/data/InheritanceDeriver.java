@@ -4,114 +4,127 @@ import gadgetinspector.data.ClassReference.Handle;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class InheritanceDeriver {
     private static final Logger LOGGER = LoggerFactory.getLogger(InheritanceDeriver.class);
 
+    /**
+     * 按拓扑顺序（父类、接口在前）推导每个类的所有父类、超类、接口类，每个类的集合由直接父类已计算好的集合合并得到，
+     * 同一层的类之间没有依赖，可以并行计算
+     *
+     * @param classMap
+     * @return
+     */
     public static InheritanceMap derive(Map<ClassReference.Handle, ClassReference> classMap) {
         LOGGER.debug("Calculating inheritance for " + (classMap.size()) + " classes...");
-        Map<ClassReference.Handle, Set<ClassReference.Handle>> implicitInheritance = new HashMap<>();
-        //遍历所有类
+        //类 -> 在classMap中存在的直接父类、接口类
+        Map<ClassReference.Handle, Set<ClassReference.Handle>> directParents = new HashMap<>(classMap.size());
+        //类 -> 直接子类、实现类
+        Map<ClassReference.Handle, List<ClassReference.Handle>> directChildren = new HashMap<>();
+        Map<ClassReference.Handle, Integer> pendingParents = new HashMap<>(classMap.size());
+        List<ClassReference.Handle> level = new ArrayList<>();
         for (ClassReference classReference : classMap.values()) {
-            if (implicitInheritance.containsKey(classReference.getHandle())) {
-                throw new IllegalStateException("Already derived implicit classes for " + classReference.getName());
+            Set<ClassReference.Handle> parents = new HashSet<>();
+            if (classReference.getSuperClass() != null) {
+                parents.add(new ClassReference.Handle(classReference.getSuperClass()));
+            }
+            for (String iface : classReference.getInterfaces()) {
+                parents.add(new ClassReference.Handle(iface));
+            }
+            //找不到的父类、接口直接忽略
+            parents.removeIf(parent -> {
+                if (!classMap.containsKey(parent)) {
+                    LOGGER.debug("No class id for " + parent.getName());
+                    return true;
+                }
+                return false;
+            });
+            directParents.put(classReference.getHandle(), parents);
+            for (ClassReference.Handle parent : parents) {
+                directChildren.computeIfAbsent(parent, k -> new ArrayList<>()).add(classReference.getHandle());
+            }
+            pendingParents.put(classReference.getHandle(), parents.size());
+            if (parents.isEmpty()) {
+                level.add(classReference.getHandle());
+            }
+        }
+
+        Map<ClassReference.Handle, Set<ClassReference.Handle>> implicitInheritance = new ConcurrentHashMap<>(classMap.size());
+        while (!level.isEmpty()) {
+            //同一层的类的直接父类都在之前的层中计算完成
+            level.parallelStream().forEach(clazz -> implicitInheritance.put(clazz, mergeParents(directParents.get(clazz), implicitInheritance)));
+            List<ClassReference.Handle> nextLevel = new ArrayList<>();
+            for (ClassReference.Handle clazz : level) {
+                for (ClassReference.Handle child : directChildren.getOrDefault(clazz, Collections.emptyList())) {
+                    if (pendingParents.merge(child, -1, Integer::sum) == 0) {
+                        nextLevel.add(child);
+                    }
+                }
             }
-            Set<ClassReference.Handle> allParents = new HashSet<>();
+            level = nextLevel;
+        }
 
-            //获取classReference的所有父类、超类、接口类
-            getAllParents(classReference, classMap, allParents);
-            //添加缓存：类名 -> 所有的父类、超类、接口类
-            implicitInheritance.put(classReference.getHandle(), allParents);
+        if (implicitInheritance.size() < classMap.size()) {
+            //继承关系存在环（混淆或损坏的class），剩余的类迭代合并直到不再变化
+            Set<ClassReference.Handle> remaining = new HashSet<>(classMap.keySet());
+            remaining.removeAll(implicitInheritance.keySet());
+            LOGGER.debug("Inheritance cycle detected in " + remaining.size() + " classes");
+            for (ClassReference.Handle clazz : remaining) {
+                implicitInheritance.put(clazz, new HashSet<>(directParents.get(clazz)));
+            }
+            boolean changed = true;
+            while (changed) {
+                changed = false;
+                for (ClassReference.Handle clazz : remaining) {
+                    Set<ClassReference.Handle> merged = mergeParents(directParents.get(clazz), implicitInheritance);
+                    if (!merged.equals(implicitInheritance.get(clazz))) {
+                        implicitInheritance.put(clazz, merged);
+                        changed = true;
+                    }
+                }
+            }
         }
-        //InheritanceMap翻转集合，转换为{class:[subclass]}
+
+        //InheritanceMap会同时编码父-子关系，不需要再单独生成{class:[subclass]}
         return new InheritanceMap(implicitInheritance);
     }
 
     /**
-     * 获取classReference的所有父类、超类、接口类
-     *
-     * @param classReference
-     * @param classMap
-     * @param allParents
+     * 合并直接父类以及直接父类的所有父类、超类、接口类
      */
-    private static void getAllParents(ClassReference classReference, Map<ClassReference.Handle, ClassReference> classMap, Set<ClassReference.Handle> allParents) {
-        Set<ClassReference.Handle> parents = new HashSet<>();
-        //把当前classReference类的父类添加到parents
-        if (classReference.getSuperClass() != null) {
-            parents.add(new ClassReference.Handle(classReference.getSuperClass()));
-        }
-        //把当前classReference类实现的所有接口添加到parents
-        for (String iface : classReference.getInterfaces()) {
-            parents.add(new ClassReference.Handle(iface));
-        }
-
-        for (ClassReference.Handle immediateParent : parents) {
-            //从所有类数据集合中，遍历找出classReference的父类、接口
-            ClassReference parentClassReference = classMap.get(immediateParent);
-            if (parentClassReference == null) {
-                LOGGER.debug("No class id for " + immediateParent.getName());
-                continue;
+    private static Set<ClassReference.Handle> mergeParents(Set<ClassReference.Handle> parents,
+                                                           Map<ClassReference.Handle, Set<ClassReference.Handle>> implicitInheritance) {
+        Set<ClassReference.Handle> allParents = new HashSet<>(parents);
+        for (ClassReference.Handle parent : parents) {
+            Set<ClassReference.Handle> ancestors = implicitInheritance.get(parent);
+            if (ancestors != null) {
+                allParents.addAll(ancestors);
             }
-            //继续添加到集合中
-            allParents.add(parentClassReference.getHandle());
-            //继续递归查找，直到把classReference类的所有父类、超类、接口类都添加到allParents
-            getAllParents(parentClassReference, classMap, allParents);
         }
+        return allParents;
     }
 
+    /**
+     * 计算所有方法的实现（某个类的方法->所有的override方法），只需要部分方法时使用LazyMethodImplMap
+     */
     public static Map<MethodReference.Handle, Set<MethodReference.Handle>> getAllMethodImplementations(
             InheritanceMap inheritanceMap, Map<MethodReference.Handle, MethodReference> methodMap) {
-
-        //遍历整合，得到每个类的所有方法实现，形成 类->实现的方法集 的映射
-        Map<Handle, Set<MethodReference.Handle>> methodsByClass = getMethodsByClass(methodMap);
-
-        //遍历继承关系数据，形成 父类->子孙类集 的映射
-        Map<ClassReference.Handle, Set<ClassReference.Handle>> subClassMap = new HashMap<>();
-        for (Map.Entry<ClassReference.Handle, Set<ClassReference.Handle>> entry : inheritanceMap.entrySet()) {
-            for (ClassReference.Handle parent : entry.getValue()) {
-                if (!subClassMap.containsKey(parent)) {
-                    Set<ClassReference.Handle> subClasses = new HashSet<>();
-                    subClasses.add(entry.getKey());
-                    subClassMap.put(parent, subClasses);
-                } else {
-                    subClassMap.get(parent).add(entry.getKey());
-                }
-            }
-        }
-
-        //遍历所有方法，根据父类->子孙类集合，找到所有的override的方法，记录下来（某个类的方法->所有的override方法）
+        LazyMethodImplMap lazyMethodImplMap = new LazyMethodImplMap(inheritanceMap, methodMap);
         Map<MethodReference.Handle, Set<MethodReference.Handle>> methodImplMap = new HashMap<>();
-        for (MethodReference method : methodMap.values()) {
-            // Static methods cannot be overriden
-            if (method.isStatic()) {
-                continue;
-            }
-
-            Set<MethodReference.Handle> overridingMethods = new HashSet<>();
-            Set<ClassReference.Handle> subClasses = subClassMap.get(method.getClassReference());
-            if (subClasses != null) {
-                for (ClassReference.Handle subClass : subClasses) {
-                    // This class extends ours; see if it has a matching method
-                    Set<MethodReference.Handle> subClassMethods = methodsByClass.get(subClass);
-                    if (subClassMethods != null) {
-                        for (MethodReference.Handle subClassMethod : subClassMethods) {
-                            if (subClassMethod.getName().equals(method.getName()) && subClassMethod.getDesc().equals(method.getDesc())) {
-                                overridingMethods.add(subClassMethod);
-                            }
-                        }
-                    }
-                }
-            }
-
-            if (overridingMethods.size() > 0) {
-                methodImplMap.put(method.getHandle(), overridingMethods);
+        for (MethodReference.Handle method : methodMap.keySet()) {
+            Set<MethodReference.Handle> overridingMethods = lazyMethodImplMap.get(method);
+            if (overridingMethods != null) {
+                methodImplMap.put(method, new HashSet<>(overridingMethods));
             }
         }
-
         return methodImplMap;
     }
 
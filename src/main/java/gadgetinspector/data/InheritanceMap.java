@@ -4,55 +4,340 @@ import java.io.IOException;
 import java.nio.file.Paths;
 import java.util.*;
 
+/**
+ * 类继承关系，子-父关系用一棵生成树的DFS先序区间编码，树上覆盖不到的父类（多实现接口等）单独以有序id数组保存
+ *
+ * isSubclassOf为区间判断加一次二分查找，父类、子类集合以视图的形式返回，不需要为每个类保存完整的集合
+ */
 public class InheritanceMap {
-    //子-父关系集合
-    private final Map<ClassReference.Handle, Set<ClassReference.Handle>> inheritanceMap;
-    //父-子关系集合
-    private final Map<ClassReference.Handle, Set<ClassReference.Handle>> subClassMap;
+    //id -> 类
+    private final ClassReference.Handle[] classes;
+    //类 -> id
+    private final Map<ClassReference.Handle, Integer> ids;
+    //在子-父关系集合中存在的类（否则只作为父类出现）
+    private final BitSet known;
+
+    //生成树：父节点（没有时为-1）、先序编号、子树结束位置（不含）、树上祖先数量
+    private final int[] treeParent;
+    private final int[] preOrder;
+    private final int[] subtreeEnd;
+    private final int[] depth;
+    //先序编号 -> id
+    private final int[] byPreOrder;
+
+    //不在生成树路径上的其余父类id，升序
+    private final int[][] extraParents;
+    //extraParents的反向：把该类作为extraParents的子类id，升序
+    private final int[][] extraChildren;
 
     public InheritanceMap(Map<ClassReference.Handle, Set<ClassReference.Handle>> inheritanceMap) {
-        this.inheritanceMap = inheritanceMap;
-        subClassMap = new HashMap<>();
-        for (Map.Entry<ClassReference.Handle, Set<ClassReference.Handle>> entry : inheritanceMap.entrySet()) {
-            ClassReference.Handle child = entry.getKey();
-            for (ClassReference.Handle parent : entry.getValue()) {
-                subClassMap.computeIfAbsent(parent, k -> new HashSet<>()).add(child);
+        ids = new HashMap<>(inheritanceMap.size());
+        List<ClassReference.Handle> handles = new ArrayList<>(inheritanceMap.size());
+        for (ClassReference.Handle clazz : inheritanceMap.keySet()) {
+            ids.put(clazz, handles.size());
+            handles.add(clazz);
+        }
+        known = new BitSet(handles.size());
+        known.set(0, handles.size());
+        for (Set<ClassReference.Handle> parents : inheritanceMap.values()) {
+            for (ClassReference.Handle parent : parents) {
+                if (!ids.containsKey(parent)) {
+                    ids.put(parent, handles.size());
+                    handles.add(parent);
+                }
+            }
+        }
+        classes = handles.toArray(new ClassReference.Handle[0]);
+        int size = classes.length;
+
+        int[][] allParents = new int[size][];
+        for (int id = 0; id < size; id++) {
+            Set<ClassReference.Handle> parents = known.get(id) ? inheritanceMap.get(classes[id]) : null;
+            int[] parentIds = new int[parents == null ? 0 : parents.size()];
+            int i = 0;
+            if (parents != null) {
+                for (ClassReference.Handle parent : parents) {
+                    parentIds[i++] = ids.get(parent);
+                }
+            }
+            Arrays.sort(parentIds);
+            allParents[id] = parentIds;
+        }
+
+        //生成树的父节点取父类集合最大（即层次最深）的父类，并且它的父类集合需要是当前类父类集合的子集，
+        //这样树上的祖先一定都是真正的父类；集合大小严格递减保证不会成环
+        treeParent = new int[size];
+        int[] childCount = new int[size + 1];
+        for (int id = 0; id < size; id++) {
+            int best = -1;
+            for (int parent : allParents[id]) {
+                if (parent != id && allParents[parent].length < allParents[id].length
+                    && (best == -1 || allParents[parent].length > allParents[best].length)) {
+                    best = parent;
+                }
             }
+            if (best != -1 && !containsAll(allParents[id], allParents[best])) {
+                best = -1;
+            }
+            treeParent[id] = best;
+            childCount[best + 1]++;
+        }
+
+        //按父节点分组子节点，下标0为所有根节点
+        int[] childStart = new int[size + 2];
+        for (int i = 0; i <= size; i++) {
+            childStart[i + 1] = childStart[i] + childCount[i];
         }
+        int[] children = new int[size];
+        int[] fill = Arrays.copyOf(childStart, size + 1);
+        for (int id = 0; id < size; id++) {
+            children[fill[treeParent[id] + 1]++] = id;
+        }
+
+        //非递归DFS，计算先序编号和子树区间
+        preOrder = new int[size];
+        subtreeEnd = new int[size];
+        depth = new int[size];
+        byPreOrder = new int[size];
+        int[] stack = new int[size];
+        int[] nextChild = new int[size];
+        int counter = 0;
+        for (int r = childStart[0]; r < childStart[1]; r++) {
+            int top = 0;
+            stack[0] = children[r];
+            preOrder[children[r]] = counter;
+            byPreOrder[counter++] = children[r];
+            nextChild[children[r]] = childStart[children[r] + 1];
+            while (top >= 0) {
+                int node = stack[top];
+                if (nextChild[node] < childStart[node + 2]) {
+                    int child = children[nextChild[node]++];
+                    depth[child] = depth[node] + 1;
+                    preOrder[child] = counter;
+                    byPreOrder[counter++] = child;
+                    nextChild[child] = childStart[child + 1];
+                    stack[++top] = child;
+                } else {
+                    subtreeEnd[node] = counter;
+                    top--;
+                }
+            }
+        }
+
+        extraParents = new int[size][];
+        int[] extraChildCount = new int[size];
+        for (int id = 0; id < size; id++) {
+            int[] extras = new int[allParents[id].length - depth[id]];
+            int i = 0;
+            for (int parent : allParents[id]) {
+                if (!isTreeAncestor(parent, id)) {
+                    extras[i++] = parent;
+                    extraChildCount[parent]++;
+                }
+            }
+            extraParents[id] = extras;
+        }
+        extraChildren = new int[size][];
+        for (int id = 0; id < size; id++) {
+            extraChildren[id] = new int[extraChildCount[id]];
+            extraChildCount[id] = 0;
+        }
+        //按id顺序填充，结果天然升序
+        for (int id = 0; id < size; id++) {
+            for (int parent : extraParents[id]) {
+                extraChildren[parent][extraChildCount[parent]++] = id;
+            }
+        }
+    }
+
+    /**
+     * 两个有序数组，判断sub是否为all的子集
+     */
+    private static boolean containsAll(int[] all, int[] sub) {
+        int i = 0;
+        for (int value : sub) {
+            while (i < all.length && all[i] < value) {
+                i++;
+            }
+            if (i == all.length || all[i] != value) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isTreeAncestor(int ancestor, int id) {
+        return preOrder[ancestor] < preOrder[id] && preOrder[id] < subtreeEnd[ancestor];
+    }
+
+    private boolean isSubclassOf(int id, int superId) {
+        return isTreeAncestor(superId, id) || Arrays.binarySearch(extraParents[id], superId) >= 0;
     }
 
     public Set<Map.Entry<ClassReference.Handle, Set<ClassReference.Handle>>> entrySet() {
-        return inheritanceMap.entrySet();
+        return new AbstractSet<Map.Entry<ClassReference.Handle, Set<ClassReference.Handle>>>() {
+            @Override
+            public Iterator<Map.Entry<ClassReference.Handle, Set<ClassReference.Handle>>> iterator() {
+                return new Iterator<Map.Entry<ClassReference.Handle, Set<ClassReference.Handle>>>() {
+                    private int next = known.nextSetBit(0);
+
+                    @Override
+                    public boolean hasNext() {
+                        return next >= 0;
+                    }
+
+                    @Override
+                    public Map.Entry<ClassReference.Handle, Set<ClassReference.Handle>> next() {
+                        if (next < 0) {
+                            throw new NoSuchElementException();
+                        }
+                        int id = next;
+                        next = known.nextSetBit(id + 1);
+                        return new AbstractMap.SimpleImmutableEntry<>(classes[id], new SuperClassSet(id));
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return known.cardinality();
+            }
+        };
     }
 
     public Set<ClassReference.Handle> getSuperClasses(ClassReference.Handle clazz) {
-        Set<ClassReference.Handle> parents = inheritanceMap.get(clazz);
-        if (parents == null) {
+        Integer id = ids.get(clazz);
+        if (id == null || !known.get(id)) {
             return null;
         }
-        return Collections.unmodifiableSet(parents);
+        return new SuperClassSet(id);
     }
 
     public boolean isSubclassOf(ClassReference.Handle clazz, ClassReference.Handle superClass) {
-        Set<ClassReference.Handle> parents = inheritanceMap.get(clazz);
-        if (parents == null) {
+        Integer id = ids.get(clazz);
+        Integer superId = ids.get(superClass);
+        if (id == null || superId == null) {
             return false;
         }
-        return parents.contains(superClass);
+        return isSubclassOf(id, superId);
     }
 
     public Set<ClassReference.Handle> getSubClasses(ClassReference.Handle clazz) {
-        Set<ClassReference.Handle> subClasses = subClassMap.get(clazz);
-        if (subClasses == null) {
+        Integer id = ids.get(clazz);
+        if (id == null) {
+            return null;
+        }
+        SubClassSet subClasses = new SubClassSet(id);
+        if (subClasses.isEmpty()) {
             return null;
         }
-        return Collections.unmodifiableSet(subClasses);
+        return subClasses;
+    }
+
+    /**
+     * 所有父类、超类、接口类的只读视图：先沿生成树向上，再遍历extraParents
+     */
+    private class SuperClassSet extends AbstractSet<ClassReference.Handle> {
+        private final int id;
+
+        private SuperClassSet(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public Iterator<ClassReference.Handle> iterator() {
+            return new Iterator<ClassReference.Handle>() {
+                private int treeNode = treeParent[id];
+                private int extraIndex = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return treeNode != -1 || extraIndex < extraParents[id].length;
+                }
+
+                @Override
+                public ClassReference.Handle next() {
+                    if (treeNode != -1) {
+                        int current = treeNode;
+                        treeNode = treeParent[current];
+                        return classes[current];
+                    }
+                    if (extraIndex < extraParents[id].length) {
+                        return classes[extraParents[id][extraIndex++]];
+                    }
+                    throw new NoSuchElementException();
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return depth[id] + extraParents[id].length;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof ClassReference.Handle)) {
+                return false;
+            }
+            Integer superId = ids.get(o);
+            return superId != null && isSubclassOf(id, superId);
+        }
+    }
+
+    /**
+     * 所有子孙类的只读视图：先遍历生成树上的子树区间，再遍历extraChildren
+     */
+    private class SubClassSet extends AbstractSet<ClassReference.Handle> {
+        private final int id;
+
+        private SubClassSet(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public Iterator<ClassReference.Handle> iterator() {
+            return new Iterator<ClassReference.Handle>() {
+                private int treeIndex = preOrder[id] + 1;
+                private int extraIndex = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return treeIndex < subtreeEnd[id] || extraIndex < extraChildren[id].length;
+                }
+
+                @Override
+                public ClassReference.Handle next() {
+                    if (treeIndex < subtreeEnd[id]) {
+                        return classes[byPreOrder[treeIndex++]];
+                    }
+                    if (extraIndex < extraChildren[id].length) {
+                        return classes[extraChildren[id][extraIndex++]];
+                    }
+                    throw new NoSuchElementException();
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return subtreeEnd[id] - preOrder[id] - 1 + extraChildren[id].length;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof ClassReference.Handle)) {
+                return false;
+            }
+            Integer subId = ids.get(o);
+            return subId != null && isSubclassOf(subId, id);
+        }
     }
 
     public void save() throws IOException {
         //inheritanceMap.dat数据格式：
         //类名 父类或超类或接口类1 父类或超类或接口类2 父类或超类或接口类3 ...
-        DataLoader.saveData(Paths.get("inheritanceMap.dat"), new InheritanceMapFactory(), inheritanceMap.entrySet());
+        DataLoader.saveData(Paths.get("inheritanceMap.dat"), new InheritanceMapFactory(), entrySet());
     }
 
     public static InheritanceMap load() throws IOException {
@@ -0,0 +1,95 @@
+package gadgetinspector.data;
+
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 方法 -> 所有override该方法的子孙类方法，第一次get时才计算并缓存
+ *
+ * 利用链搜索只会访问很少一部分方法，不需要预先计算所有方法的实现；entrySet只包含已计算过且非空的部分
+ */
+public class LazyMethodImplMap extends AbstractMap<MethodReference.Handle, Set<MethodReference.Handle>> {
+
+    private final InheritanceMap inheritanceMap;
+    private final Map<MethodReference.Handle, MethodReference> methodMap;
+    //方法签名（方法名+方法描述）-> {声明该签名的类:方法}
+    private final Map<String, Map<ClassReference.Handle, MethodReference.Handle>> methodsBySignature = new HashMap<>();
+    //已计算的结果，没有实现的方法保存为空集合
+    private final Map<MethodReference.Handle, Set<MethodReference.Handle>> resolved = new ConcurrentHashMap<>();
+
+    public LazyMethodImplMap(InheritanceMap inheritanceMap, Map<MethodReference.Handle, MethodReference> methodMap) {
+        this.inheritanceMap = inheritanceMap;
+        this.methodMap = methodMap;
+        for (MethodReference.Handle method : methodMap.keySet()) {
+            methodsBySignature.computeIfAbsent(method.getName() + method.getDesc(), k -> new HashMap<>())
+                .put(method.getClassReference(), method);
+        }
+    }
+
+    /**
+     * @return override的方法集合，没有时返回null
+     */
+    @Override
+    public Set<MethodReference.Handle> get(Object key) {
+        if (!(key instanceof MethodReference.Handle)) {
+            return null;
+        }
+        Set<MethodReference.Handle> overridingMethods = resolved.computeIfAbsent((MethodReference.Handle) key, this::resolve);
+        return overridingMethods.isEmpty() ? null : overridingMethods;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    private Set<MethodReference.Handle> resolve(MethodReference.Handle handle) {
+        MethodReference method = methodMap.get(handle);
+        // Static methods cannot be overriden
+        if (method == null || method.isStatic()) {
+            return Collections.emptySet();
+        }
+
+        Set<ClassReference.Handle> subClasses = inheritanceMap.getSubClasses(handle.getClassReference());
+        if (subClasses == null) {
+            return Collections.emptySet();
+        }
+        //子孙类集合与声明了相同签名的类集合的交集，即所有的override的方法，遍历两者中较小的一方
+        Map<ClassReference.Handle, MethodReference.Handle> declaringClasses = methodsBySignature.get(handle.getName() + handle.getDesc());
+        Set<MethodReference.Handle> overridingMethods = new HashSet<>();
+        if (subClasses.size() < declaringClasses.size()) {
+            for (ClassReference.Handle subClass : subClasses) {
+                MethodReference.Handle subClassMethod = declaringClasses.get(subClass);
+                if (subClassMethod != null) {
+                    overridingMethods.add(subClassMethod);
+                }
+            }
+        } else {
+            for (Map.Entry<ClassReference.Handle, MethodReference.Handle> entry : declaringClasses.entrySet()) {
+                if (subClasses.contains(entry.getKey())) {
+                    overridingMethods.add(entry.getValue());
+                }
+            }
+        }
+        return overridingMethods.isEmpty() ? Collections.emptySet() : Collections.unmodifiableSet(overridingMethods);
+    }
+
+    /**
+     * 已计算过且非空的部分
+     */
+    @Override
+    public Set<Entry<MethodReference.Handle, Set<MethodReference.Handle>>> entrySet() {
+        Map<MethodReference.Handle, Set<MethodReference.Handle>> computed = new HashMap<>();
+        for (Entry<MethodReference.Handle, Set<MethodReference.Handle>> entry : resolved.entrySet()) {
+            if (!entry.getValue().isEmpty()) {
+                computed.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return Collections.unmodifiableMap(computed).entrySet();
+    }
+}
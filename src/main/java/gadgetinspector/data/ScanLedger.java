@@ -0,0 +1,313 @@
+package gadgetinspector.data;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 已扫描jar的记录（--history），按jar内容的sha256记录，只追加
+ *
+ * 记录文件：64字节文件头 + 每条记录64字节（sha256、扫描时间、fuzz类型、class数量、chain数量）；
+ * 索引文件（记录文件名.idx）：mmap的开放寻址hash表，每个槽16字节（sha256前8字节、记录下标+1），
+ * 索引损坏或与记录数量不一致时从记录文件重建，百万级jar也只需要一次内存访问即可判断是否扫描过
+ */
+public class ScanLedger implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ScanLedger.class);
+
+    private static final byte[] LEDGER_MAGIC = "GILEDGR1".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] INDEX_MAGIC = "GIINDEX1".getBytes(StandardCharsets.US_ASCII);
+    private static final int HEADER_SIZE = 64;
+    private static final int RECORD_SIZE = 64;
+    private static final int SLOT_SIZE = 16;
+    private static final int CONFIG_SIZE = 16;
+    private static final int MIN_CAPACITY = 1024;
+
+    private final Path indexPath;
+    private final FileChannel ledger;
+    private FileChannel index;
+    private MappedByteBuffer slots;
+    private int capacity;
+    private long records;
+
+    public static class Record {
+        private final byte[] sha256;
+        private final long scanTime;
+        private final String config;
+        private final int classCount;
+        private final int chainCount;
+
+        /**
+         * @param chainCount 本次扫描找到的chain数量，扫描失败时为-1
+         */
+        public Record(byte[] sha256, long scanTime, String config, int classCount, int chainCount) {
+            if (sha256.length != 32) {
+                throw new IllegalArgumentException("Invalid sha256 length " + sha256.length);
+            }
+            this.sha256 = sha256;
+            this.scanTime = scanTime;
+            this.config = config;
+            this.classCount = classCount;
+            this.chainCount = chainCount;
+        }
+
+        public byte[] getSha256() {
+            return sha256;
+        }
+
+        public long getScanTime() {
+            return scanTime;
+        }
+
+        public String getConfig() {
+            return config;
+        }
+
+        public int getClassCount() {
+            return classCount;
+        }
+
+        public int getChainCount() {
+            return chainCount;
+        }
+
+        private void write(ByteBuffer buffer) {
+            buffer.put(sha256);
+            buffer.putLong(scanTime);
+            buffer.put(configBytes(config));
+            buffer.putInt(classCount);
+            buffer.putInt(chainCount);
+        }
+
+        private static Record read(ByteBuffer buffer) {
+            byte[] sha256 = new byte[32];
+            buffer.get(sha256);
+            long scanTime = buffer.getLong();
+            byte[] config = new byte[CONFIG_SIZE];
+            buffer.get(config);
+            int length = 0;
+            while (length < CONFIG_SIZE && config[length] != 0) {
+                length++;
+            }
+            return new Record(sha256, scanTime, new String(config, 0, length, StandardCharsets.UTF_8),
+                buffer.getInt(), buffer.getInt());
+        }
+    }
+
+    private ScanLedger(Path ledgerPath, Path indexPath) throws IOException {
+        this.indexPath = indexPath;
+        Path parent = ledgerPath.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        //旧版本--history保存的是jar文件名，无法转换为按内容的记录
+        if (Files.exists(ledgerPath) && !hasMagic(ledgerPath)) {
+            Path oldPath = ledgerPath.resolveSibling(ledgerPath.getFileName() + ".old");
+            LOGGER.warn("Moving legacy history file " + ledgerPath + " to " + oldPath);
+            Files.move(ledgerPath, oldPath, StandardCopyOption.REPLACE_EXISTING);
+        }
+        ledger = FileChannel.open(ledgerPath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+        if (ledger.size() == 0) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.put(LEDGER_MAGIC);
+            header.rewind();
+            writeFully(ledger, header, 0);
+        }
+        //中断时可能留下不完整的记录
+        long size = ledger.size() - HEADER_SIZE;
+        if (size % RECORD_SIZE != 0) {
+            LOGGER.warn("Truncating incomplete record in " + ledgerPath);
+            ledger.truncate(HEADER_SIZE + size / RECORD_SIZE * RECORD_SIZE);
+        }
+        records = size / RECORD_SIZE;
+        openIndex();
+    }
+
+    public static ScanLedger open(Path ledgerPath) throws IOException {
+        return new ScanLedger(ledgerPath, ledgerPath.resolveSibling(ledgerPath.getFileName() + ".idx"));
+    }
+
+    public synchronized long size() {
+        return records;
+    }
+
+    public synchronized boolean contains(byte[] sha256, String config) throws IOException {
+        return find(sha256, config) != null;
+    }
+
+    /**
+     * @return 该jar内容、该fuzz类型最近一次的扫描记录，没有时返回null
+     */
+    public synchronized Record find(byte[] sha256, String config) throws IOException {
+        long key = key(sha256);
+        byte[] configBytes = configBytes(config);
+        Record result = null;
+        for (int slot = slot(key); ; slot = (slot + 1) & (capacity - 1)) {
+            long value = slots.getLong(HEADER_SIZE + slot * SLOT_SIZE + 8);
+            if (value == 0) {
+                return result;
+            }
+            if (slots.getLong(HEADER_SIZE + slot * SLOT_SIZE) != key) {
+                continue;
+            }
+            Record record = readRecord(value - 1);
+            if (Arrays.equals(record.sha256, sha256)
+                && Arrays.equals(configBytes(record.config), configBytes)
+                && (result == null || record.scanTime >= result.scanTime)) {
+                result = record;
+            }
+        }
+    }
+
+    public synchronized void append(Record record) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE);
+        record.write(buffer);
+        buffer.flip();
+        writeFully(ledger, buffer, HEADER_SIZE + records * RECORD_SIZE);
+        insert(key(record.sha256), records);
+        records++;
+        slots.putLong(16, records);
+        //装载因子超过0.5时扩容
+        if (records * 2 > capacity) {
+            rebuildIndex(capacity * 2);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        ledger.force(false);
+        ledger.close();
+        if (slots != null) {
+            slots.force();
+        }
+        index.close();
+    }
+
+    private void openIndex() throws IOException {
+        index = FileChannel.open(indexPath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+        if (index.size() >= HEADER_SIZE) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(index, header, 0);
+            byte[] magic = new byte[INDEX_MAGIC.length];
+            header.get(magic);
+            int indexCapacity = header.getInt(8);
+            long indexRecords = header.getLong(16);
+            if (Arrays.equals(magic, INDEX_MAGIC) && Integer.bitCount(indexCapacity) == 1
+                && index.size() == HEADER_SIZE + (long) indexCapacity * SLOT_SIZE && indexRecords == records
+                && records * 2 <= indexCapacity) {
+                capacity = indexCapacity;
+                slots = index.map(FileChannel.MapMode.READ_WRITE, 0, index.size());
+                return;
+            }
+        }
+        int newCapacity = MIN_CAPACITY;
+        while (newCapacity < records * 2 + 2) {
+            newCapacity *= 2;
+        }
+        rebuildIndex(newCapacity);
+    }
+
+    /**
+     * 按记录文件重建索引
+     */
+    private void rebuildIndex(int newCapacity) throws IOException {
+        if ((long) newCapacity * SLOT_SIZE > Integer.MAX_VALUE - HEADER_SIZE) {
+            throw new IOException("Scan ledger index too large: " + newCapacity + " slots");
+        }
+        capacity = newCapacity;
+        //已经映射过的文件不能截断（windows），扩容时文件只会变大，直接清空映射的区域
+        if (slots == null) {
+            index.truncate(0);
+        }
+        slots = index.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) capacity * SLOT_SIZE);
+        for (int i = 0; i < slots.capacity(); i += 8) {
+            slots.putLong(i, 0);
+        }
+        slots.put(INDEX_MAGIC);
+        slots.putInt(8, capacity);
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * 1024);
+        long count = 0;
+        while (count < records) {
+            buffer.clear();
+            int n = (int) Math.min(1024, records - count);
+            buffer.limit(n * RECORD_SIZE);
+            readFully(ledger, buffer, HEADER_SIZE + count * RECORD_SIZE);
+            for (int i = 0; i < n; i++) {
+                insert(buffer.getLong(i * RECORD_SIZE), count + i);
+            }
+            count += n;
+        }
+        slots.putLong(16, records);
+    }
+
+    private void insert(long key, long record) {
+        int slot = slot(key);
+        while (slots.getLong(HEADER_SIZE + slot * SLOT_SIZE + 8) != 0) {
+            slot = (slot + 1) & (capacity - 1);
+        }
+        slots.putLong(HEADER_SIZE + slot * SLOT_SIZE, key);
+        slots.putLong(HEADER_SIZE + slot * SLOT_SIZE + 8, record + 1);
+    }
+
+    private Record readRecord(long record) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE);
+        readFully(ledger, buffer, HEADER_SIZE + record * RECORD_SIZE);
+        return Record.read(buffer);
+    }
+
+    private int slot(long key) {
+        return (int) (key ^ (key >>> 32)) & (capacity - 1);
+    }
+
+    /**
+     * sha256本身分布均匀，取前8字节作为hash表的key
+     */
+    private static long key(byte[] sha256) {
+        return ByteBuffer.wrap(sha256).getLong();
+    }
+
+    private static byte[] configBytes(String config) {
+        byte[] bytes = config.getBytes(StandardCharsets.UTF_8);
+        return Arrays.copyOf(bytes, CONFIG_SIZE);
+    }
+
+    private static boolean hasMagic(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE) {
+                return channel.size() == 0;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(LEDGER_MAGIC.length);
+            readFully(channel, buffer, 0);
+            return Arrays.equals(buffer.array(), LEDGER_MAGIC);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                throw new IOException("Unexpected end of scan ledger");
+            }
+            position += n;
+        }
+        buffer.flip();
+    }
+}
@@ -0,0 +1,258 @@
+package gadgetinspector.data;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+/**
+ * 方法摘要缓存（passthrough、callgraph），按内容寻址
+ *
+ * key = 类hash + 被调用方法摘要的hash，类hash包括字节码和分析时读取的类外信息（字段类型是否可序列化、
+ * 字段是否transient、是否为集合类，见SummaryClassHasher），都没变时直接复用上次的分析结果，
+ * 重新扫描只改动了少量jar的应用时，JDK和未变化的依赖不需要再次分析
+ *
+ * 保存时只保留本次运行中命中或新增的条目，类或被调用方法的摘要变化后旧的条目不再保留，缓存文件不会无限增长
+ */
+public class SummaryCache {
+
+    private final Path passthroughFile;
+    private final Path callGraphFile;
+    //分析模式（是否污点分析、是否不动点迭代），模式不同的结果不能互相复用
+    private final String mode;
+
+    //{classHash,方法名,方法描述,depsHash} -> 可污染返回值的参数
+    private final Map<List<String>, Set<Integer>> passthrough = new HashMap<>();
+    //classHash -> 该类的调用关系
+    private final Map<String, CallGraphEntry> callGraph = new HashMap<>();
+    //本次运行中命中或新增的key
+    private final Set<List<String>> usedPassthrough = new HashSet<>();
+    private final Set<String> usedCallGraph = new HashSet<>();
+
+    private int hits = 0;
+    private int misses = 0;
+
+    private SummaryCache(Path passthroughFile, Path callGraphFile, String mode) {
+        this.passthroughFile = passthroughFile;
+        this.callGraphFile = callGraphFile;
+        this.mode = mode;
+    }
+
+    /**
+     * 加载缓存，不存在时返回空缓存
+     *
+     * @param dir        缓存目录
+     * @param configName fuzz类型，每种类型单独一份缓存
+     * @param mode       分析模式
+     */
+    public static SummaryCache load(Path dir, String configName, String mode) throws IOException {
+        SummaryCache cache = new SummaryCache(dir.resolve("passthrough-" + configName + ".dat"),
+            dir.resolve("callgraph-" + configName + ".dat"), mode);
+        for (Map.Entry<List<String>, Set<Integer>> entry : DataLoader.loadData(cache.passthroughFile, new PassthroughEntryFactory())) {
+            cache.passthrough.put(entry.getKey(), entry.getValue());
+        }
+        for (CallGraphEntry entry : DataLoader.loadData(cache.callGraphFile, new CallGraphEntryFactory())) {
+            cache.callGraph.put(entry.classHash, entry);
+        }
+        return cache;
+    }
+
+    /**
+     * 只保存本次运行中用到的条目，passthrough、callgraph阶段各自加载缓存，没用到的一类缓存文件保持不变
+     */
+    public void save() throws IOException {
+        Files.createDirectories(passthroughFile.toAbsolutePath().getParent());
+        if (!usedPassthrough.isEmpty()) {
+            DataLoader.saveData(passthroughFile, new PassthroughEntryFactory(), passthrough.entrySet().stream()
+                .filter(entry -> usedPassthrough.contains(entry.getKey())).collect(Collectors.toList()));
+        }
+        if (!usedCallGraph.isEmpty()) {
+            DataLoader.saveData(callGraphFile, new CallGraphEntryFactory(), callGraph.values().stream()
+                .filter(entry -> usedCallGraph.contains(entry.classHash)).collect(Collectors.toList()));
+        }
+    }
+
+    public static String hashClass(byte[] bytes) {
+        return Hashing.murmur3_128().hashBytes(bytes).toString();
+    }
+
+    /**
+     * 计算被调用方法摘要的hash，被调用方法排序后连同其passthrough参数一起计算，null和空集合视为相同
+     */
+    public String dependencyHash(Collection<MethodReference.Handle> callees,
+                                 Map<MethodReference.Handle, Set<Integer>> passthroughDataflow) {
+        Set<String> sorted = new TreeSet<>();
+        for (MethodReference.Handle callee : callees) {
+            Set<Integer> args = passthroughDataflow.get(callee);
+            sorted.add(callee.getClassReference().getName() + "." + callee.getName() + callee.getDesc() + "="
+                + (args == null ? "" : new TreeSet<>(args).toString()));
+        }
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        hasher.putString(mode, StandardCharsets.UTF_8);
+        for (String callee : sorted) {
+            hasher.putChar('\n').putString(callee, StandardCharsets.UTF_8);
+        }
+        return hasher.hash().toString();
+    }
+
+    /**
+     * @return 缓存的passthrough参数，未命中返回null
+     */
+    public Set<Integer> getPassthrough(String classHash, MethodReference.Handle method, String depsHash) {
+        List<String> key = passthroughKey(classHash, method, depsHash);
+        Set<Integer> args = passthrough.get(key);
+        if (args == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        usedPassthrough.add(key);
+        return new HashSet<>(args);
+    }
+
+    public void putPassthrough(String classHash, MethodReference.Handle method, String depsHash, Set<Integer> args) {
+        List<String> key = passthroughKey(classHash, method, depsHash);
+        passthrough.put(key, args == null ? Collections.emptySet() : new HashSet<>(args));
+        usedPassthrough.add(key);
+    }
+
+    /**
+     * @return 缓存的类调用关系，字节码或被调用方法的摘要变化时返回null
+     */
+    public Set<GraphCall> getCallGraph(String classHash, Map<MethodReference.Handle, Set<Integer>> passthroughDataflow) {
+        CallGraphEntry entry = callGraph.get(classHash);
+        if (entry == null || !entry.depsHash.equals(dependencyHash(entry.callees, passthroughDataflow))) {
+            misses++;
+            return null;
+        }
+        hits++;
+        usedCallGraph.add(classHash);
+        return entry.calls;
+    }
+
+    public void putCallGraph(String classHash, Set<MethodReference.Handle> callees, Set<GraphCall> calls,
+                             Map<MethodReference.Handle, Set<Integer>> passthroughDataflow) {
+        callGraph.put(classHash, new CallGraphEntry(classHash, dependencyHash(callees, passthroughDataflow),
+            new HashSet<>(callees), new HashSet<>(calls)));
+        usedCallGraph.add(classHash);
+    }
+
+    public int getHits() {
+        return hits;
+    }
+
+    public int getMisses() {
+        return misses;
+    }
+
+    private static List<String> passthroughKey(String classHash, MethodReference.Handle method, String depsHash) {
+        return Arrays.asList(classHash, method.getName(), method.getDesc(), depsHash);
+    }
+
+    private static class CallGraphEntry {
+        private final String classHash;
+        private final String depsHash;
+        private final Set<MethodReference.Handle> callees;
+        private final Set<GraphCall> calls;
+
+        private CallGraphEntry(String classHash, String depsHash, Set<MethodReference.Handle> callees, Set<GraphCall> calls) {
+            this.classHash = classHash;
+            this.depsHash = depsHash;
+            this.callees = callees;
+            this.calls = calls;
+        }
+    }
+
+    private static class PassthroughEntryFactory implements DataFactory<Map.Entry<List<String>, Set<Integer>>> {
+
+        @Override
+        public Map.Entry<List<String>, Set<Integer>> parse(String[] fields) {
+            Set<Integer> args = new HashSet<>();
+            for (String arg : fields[4].split(",")) {
+                if (arg.length() > 0) {
+                    args.add(Integer.parseInt(arg));
+                }
+            }
+            return new AbstractMap.SimpleEntry<>(Arrays.asList(fields[0], fields[1], fields[2], fields[3]), args);
+        }
+
+        @Override
+        public String[] serialize(Map.Entry<List<String>, Set<Integer>> entry) {
+            List<String> key = entry.getKey();
+            //空集合同样需要保存，表示分析过且没有参数能污染返回值
+            String args = entry.getValue().stream().map(String::valueOf).collect(Collectors.joining(","));
+            return new String[]{key.get(0), key.get(1), key.get(2), key.get(3), args};
+        }
+    }
+
+    /**
+     * 一行一个类：classHash depsHash 被调用方法 调用关系，被调用方法和调用关系的字段用!分隔，多个之间用&分隔
+     */
+    private static class CallGraphEntryFactory implements DataFactory<CallGraphEntry> {
+
+        @Override
+        public CallGraphEntry parse(String[] fields) {
+            Set<MethodReference.Handle> callees = new HashSet<>();
+            for (String callee : split(fields[2])) {
+                String[] tmp = callee.split("!", -1);
+                callees.add(new MethodReference.Handle(new ClassReference.Handle(tmp[0]), tmp[1], tmp[2]));
+            }
+            Set<GraphCall> calls = new HashSet<>();
+            for (String call : split(fields[3])) {
+                String[] tmp = call.split("!", -1);
+                calls.add(new GraphCall(
+                    new MethodReference.Handle(new ClassReference.Handle(tmp[0]), tmp[1], tmp[2]),
+                    new MethodReference.Handle(new ClassReference.Handle(tmp[3]), tmp[4], tmp[5]),
+                    Integer.parseInt(tmp[6]),
+                    tmp[7].isEmpty() ? null : tmp[7],
+                    Integer.parseInt(tmp[8])));
+            }
+            return new CallGraphEntry(fields[0], fields[1], callees, calls);
+        }
+
+        @Override
+        public String[] serialize(CallGraphEntry entry) {
+            String callees = entry.callees.stream()
+                .map(callee -> callee.getClassReference().getName() + "!" + callee.getName() + "!" + callee.getDesc())
+                .collect(Collectors.joining("&"));
+            GraphCall.Factory factory = new GraphCall.Factory();
+            String calls = entry.calls.stream()
+                .map(call -> String.join("!", nullToEmpty(factory.serialize(call))))
+                .collect(Collectors.joining("&"));
+            return new String[]{entry.classHash, entry.depsHash, callees, calls};
+        }
+
+        private static List<String> split(String field) {
+            List<String> values = new ArrayList<>();
+            for (String value : field.split("&")) {
+                if (value.length() > 0) {
+                    values.add(value);
+                }
+            }
+            return values;
+        }
+
+        private static String[] nullToEmpty(String[] fields) {
+            for (int i = 0; i < fields.length; i++) {
+                if (fields[i] == null) {
+                    fields[i] = "";
+                }
+            }
+            return fields;
+        }
+    }
+}
@@ -1,7 +1,9 @@
 package gadgetinspector.fastjson;
 
 import gadgetinspector.ConfigHelper;
+import gadgetinspector.SerializableDecider;
 import gadgetinspector.SourceDiscovery;
+import gadgetinspector.config.FastjsonDeserializationConfig;
 import gadgetinspector.data.ClassReference;
 import gadgetinspector.data.GraphCall;
 import gadgetinspector.data.InheritanceMap;
@@ -11,7 +13,7 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
@@ -41,81 +43,98 @@ public class FastjsonSourceDiscovery extends SourceDiscovery {
       Map<MethodReference.Handle, MethodReference> methodMap,
       InheritanceMap inheritanceMap, Map<MethodReference.Handle, Set<GraphCall>> graphCallMap) {
 
-    final FastjsonSerializableDecider serializableDecider = new FastjsonSerializableDecider(
-        methodMap);
+    final SerializableDecider serializableDecider = new FastjsonDeserializationConfig().getSerializableDecider(methodMap, inheritanceMap);
 
+    //类是否可能作为source，每个类只判断一次（getter、setter数量远大于类的数量）
+    Map<ClassReference.Handle, Boolean> classVerdicts = new HashMap<>();
     for (MethodReference.Handle method : methodMap.keySet()) {
-      if (serializableDecider.apply(method.getClassReference())) {
-        if (skipList.contains(method.getClassReference().getName())) {
-          continue;
-        }
-        if (!checkFastjsonBlackList(method.getClassReference().getName().replace("/","."))) {
-          continue;
-        }
-        if (method.getClassReference().getName().startsWith("javafx"))
-          continue;
-        if (method.getClassReference().getName().startsWith("javax"))
-          continue;
-        /**
-         * 满足:
-         * get开头
-         * 并且get后面需要东西
-         * 参数为空
-         */
-        if (method.getName().startsWith("get") && method.getName().length() > 3 && method.getDesc().startsWith("()")) {
-          addDiscoveredSource(new Source(method, 0));
-        }
-        /**
-         * 满足
-         * 以set开头
-         * 参数为引用类型,只能有一个,并且没有返回值
-         */
-        if (method.getName().startsWith("set") && method.getDesc().matches("\\(L[\\w/$]+?;\\)V")) {
+      if (!classVerdicts.computeIfAbsent(method.getClassReference(),
+          clazz -> isSourceClass(clazz, serializableDecider))) {
+        continue;
+      }
+      /**
+       * 满足:
+       * get开头
+       * 并且get后面需要东西
+       * 参数为空
+       */
+      if (method.getName().startsWith("get") && method.getName().length() > 3 && method.getDesc().startsWith("()")) {
+        addDiscoveredSource(new Source(method, 0));
+      }
+      /**
+       * 满足
+       * 以set开头
+       * 参数为引用类型,只能有一个,并且没有返回值
+       */
+      if (method.getName().startsWith("set") && method.getDesc().matches("\\(L[\\w/$]+?;\\)V")) {
 //        if (method.getName().startsWith("set") && (method.getDesc().contains("(Ljava/lang/String;)V"))) {
-          addDiscoveredSource(new Source(method, 1));
-        }
+        addDiscoveredSource(new Source(method, 1));
       }
     }
   }
 
+  private boolean isSourceClass(ClassReference.Handle clazz, SerializableDecider serializableDecider) {
+    if (!serializableDecider.apply(clazz)) {
+      return false;
+    }
+    if (skipList.contains(clazz.getName())) {
+      return false;
+    }
+    if (!checkFastjsonBlackList(clazz.getName())) {
+      return false;
+    }
+    if (clazz.getName().startsWith("javafx")) {
+      return false;
+    }
+    return !clazz.getName().startsWith("javax");
+  }
+
+  /**
+   * fastjson的黑名单hash校验，类名使用/分隔，计算hash时按.处理，不需要replace
+   */
   private boolean checkFastjsonBlackList(String className) {
-    try{
-      final long BASIC = 0xcbf29ce484222325L;
-      final long PRIME = 0x100000001b3L;
+    if (className.isEmpty()) {
+      return true;
+    }
+    final long BASIC = 0xcbf29ce484222325L;
+    final long PRIME = 0x100000001b3L;
 
-      final long h1 = (BASIC ^ className.charAt(0)) * PRIME;
-      if (h1 == 0xaf64164c86024f1aL) { // [
-        return false;
-      }
+    final long h1 = (BASIC ^ dotted(className.charAt(0))) * PRIME;
+    if (h1 == 0xaf64164c86024f1aL) { // [
+      return false;
+    }
 
-      if ((h1 ^ className.charAt(className.length() - 1)) * PRIME == 0x9198507b5af98f0L) {
-        return false;
-      }
+    if ((h1 ^ dotted(className.charAt(className.length() - 1))) * PRIME == 0x9198507b5af98f0L) {
+      return false;
+    }
 
-      final long h3 = (((((BASIC ^ className.charAt(0))
-              * PRIME)
-              ^ className.charAt(1))
-              * PRIME)
-              ^ className.charAt(2))
-              * PRIME;
-
-      long hash = h3;
-      for (int i = 3; i < className.length(); ++i) {
-        hash ^= className.charAt(i);
-        hash *= PRIME;
-        if (Arrays.binarySearch(denyHashCodes, hash) >= 0) {
-          return false;
-        }
-      }
+    if (className.length() < 3) {
       return true;
     }
-    catch (Exception E){
+    final long h3 = (((((BASIC ^ dotted(className.charAt(0)))
+            * PRIME)
+            ^ dotted(className.charAt(1)))
+            * PRIME)
+            ^ dotted(className.charAt(2)))
+            * PRIME;
 
+    long hash = h3;
+    for (int i = 3; i < className.length(); ++i) {
+      hash ^= dotted(className.charAt(i));
+      hash *= PRIME;
+      if (denyHashCodeSet.contains(hash)) {
+        return false;
+      }
     }
     return true;
   }
 
+  private static char dotted(char c) {
+    return c == '/' ? '.' : c;
+  }
+
   private long[] denyHashCodes;
+  private LongHashSet denyHashCodeSet;
 
   {
     denyHashCodes = new long[]{
@@ -230,5 +249,6 @@ public class FastjsonSourceDiscovery extends SourceDiscovery {
         0x7ED9311D28BF1A65L,
         0x7ED9481D28BF417AL
     };
+    denyHashCodeSet = new LongHashSet(denyHashCodes);
   }
 }
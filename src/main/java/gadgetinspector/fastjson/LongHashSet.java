@@ -0,0 +1,42 @@
+package gadgetinspector.fastjson;
+
+/**
+ * 只读的long集合，开放寻址（线性探测），避免binarySearch和装箱
+ */
+class LongHashSet {
+
+    private final long[] keys;
+    private final boolean[] used;
+    private final int mask;
+
+    LongHashSet(long[] values) {
+        int capacity = Integer.highestOneBit(Math.max(values.length, 1) * 4 - 1) << 1;
+        keys = new long[capacity];
+        used = new boolean[capacity];
+        mask = capacity - 1;
+        for (long value : values) {
+            int index = index(value);
+            while (used[index] && keys[index] != value) {
+                index = (index + 1) & mask;
+            }
+            keys[index] = value;
+            used[index] = true;
+        }
+    }
+
+    boolean contains(long value) {
+        int index = index(value);
+        while (used[index]) {
+            if (keys[index] == value) {
+                return true;
+            }
+            index = (index + 1) & mask;
+        }
+        return false;
+    }
+
+    private int index(long value) {
+        long hash = value * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+}
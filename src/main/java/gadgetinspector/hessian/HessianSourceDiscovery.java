@@ -2,6 +2,7 @@ package gadgetinspector.hessian;
 
 import gadgetinspector.SerializableDecider;
 import gadgetinspector.SourceDiscovery;
+import gadgetinspector.config.HessianDeserializationConfig;
 import gadgetinspector.data.ClassReference;
 import gadgetinspector.data.GraphCall;
 import gadgetinspector.data.InheritanceMap;
@@ -32,7 +33,7 @@ public class HessianSourceDiscovery extends SourceDiscovery {
       Map<MethodReference.Handle, MethodReference> methodMap,
       InheritanceMap inheritanceMap, Map<MethodReference.Handle, Set<GraphCall>> graphCallMap) {
 
-    final SerializableDecider serializableDecider = new HessianSerializableDecider(inheritanceMap);
+    final SerializableDecider serializableDecider = new HessianDeserializationConfig().getSerializableDecider(methodMap, inheritanceMap);
 
     // hashCode() or equals() are accessible entry points using standard tricks of putting those objects
     // into a HashMap.
@@ -55,7 +56,7 @@ public class HessianSourceDiscovery extends SourceDiscovery {
 
   public static void main(String[] args) throws Exception {
     SourceDiscovery sourceDiscovery = new HessianSourceDiscovery();
-    sourceDiscovery.discover();
+    sourceDiscovery.discover(new HessianDeserializationConfig());
     sourceDiscovery.save();
   }
 }
@@ -1,7 +1,9 @@
 package gadgetinspector.jackson;
 
 import gadgetinspector.ConfigHelper;
+import gadgetinspector.SerializableDecider;
 import gadgetinspector.SourceDiscovery;
+import gadgetinspector.config.JacksonDeserializationConfig;
 import gadgetinspector.data.ClassReference;
 import gadgetinspector.data.GraphCall;
 import gadgetinspector.data.InheritanceMap;
@@ -41,7 +43,7 @@ public class JacksonSourceDiscovery extends SourceDiscovery {
                          Map<MethodReference.Handle, MethodReference> methodMap,
                          InheritanceMap inheritanceMap, Map<MethodReference.Handle, Set<GraphCall>> graphCallMap) {
 
-        final JacksonSerializableDecider serializableDecider = new JacksonSerializableDecider(methodMap);
+        final SerializableDecider serializableDecider = new JacksonDeserializationConfig().getSerializableDecider(methodMap, inheritanceMap);
 
         for (MethodReference.Handle method : methodMap.keySet()) {
             if (skipList.contains(method.getClassReference().getName())) {
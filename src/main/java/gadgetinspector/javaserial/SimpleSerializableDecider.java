@@ -4,11 +4,7 @@ import gadgetinspector.SerializableDecider;
 import gadgetinspector.data.ClassReference;
 import gadgetinspector.data.InheritanceMap;
 
-import java.util.HashMap;
-import java.util.Map;
-
 public class SimpleSerializableDecider implements SerializableDecider {
-    private final Map<ClassReference.Handle, Boolean> cache = new HashMap<>();
     private final InheritanceMap inheritanceMap;
 
     public SimpleSerializableDecider(InheritanceMap inheritanceMap) {
@@ -16,26 +12,13 @@ public class SimpleSerializableDecider implements SerializableDecider {
     }
 
     /**
-     * 用于判断class是否可以被序列化
+     * 用于判断class是否可以被序列化，决策结果由{@link gadgetinspector.CachingSerializableDecider}缓存
      *
      * @param handle
      * @return
      */
     @Override
     public Boolean apply(ClassReference.Handle handle) {
-        Boolean cached = cache.get(handle);
-        if (cached != null) {
-            return cached;
-        }
-
-        Boolean result = applyNoCache(handle);
-
-        cache.put(handle, result);
-        return result;
-    }
-
-    private Boolean applyNoCache(ClassReference.Handle handle) {
-
         if (isBlacklistedClass(handle)) {
             return false;
         }
@@ -2,12 +2,17 @@ package gadgetinspector.javaserial;
 
 import gadgetinspector.SerializableDecider;
 import gadgetinspector.SourceDiscovery;
+import gadgetinspector.SourceRule;
+import gadgetinspector.config.JavaDeserializationConfig;
 import gadgetinspector.data.ClassReference;
 import gadgetinspector.data.GraphCall;
 import gadgetinspector.data.InheritanceMap;
 import gadgetinspector.data.MethodReference;
 import gadgetinspector.data.Source;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Set;
+import java.util.stream.IntStream;
 import org.objectweb.asm.Type;
 
 import java.util.Map;
@@ -19,25 +24,45 @@ public class SimpleSourceDiscovery extends SourceDiscovery {
                          Map<MethodReference.Handle, MethodReference> methodMap,
                          InheritanceMap inheritanceMap, Map<MethodReference.Handle, Set<GraphCall>> graphCallMap) {
 
-        final SerializableDecider serializableDecider = new SimpleSerializableDecider(inheritanceMap);
+        final SerializableDecider serializableDecider = new JavaDeserializationConfig().getSerializableDecider(methodMap, inheritanceMap);
 
-        for (MethodReference.Handle method : methodMap.keySet()) {
-            System.out.println(method);
-            if (Boolean.TRUE.equals(serializableDecider.apply(method.getClassReference()))) {
-                if (method.getName().equals("finalize") && method.getDesc().equals("()V")) {
-                    addDiscoveredSource(new Source(method, 0));
+        //只遍历一次methodMap，规则按方法名索引，方法名匹配后才需要决策
+        List<SourceRule> rules = Arrays.asList(
+            new SourceRule(method -> method.getDesc().equals("()V")
+                && Boolean.TRUE.equals(serializableDecider.apply(method.getClassReference())) ? new int[]{0} : null,
+                "finalize"),
+            // If a class implements readObject, the ObjectInputStream passed in is considered tainted
+            new SourceRule(method -> method.getDesc().equals("(Ljava/io/ObjectInputStream;)V")
+                && Boolean.TRUE.equals(serializableDecider.apply(method.getClassReference())) ? new int[]{1} : null,
+                "readObject"),
+            // hashCode() or equals() are accessible entry points using standard tricks of putting those objects
+            // into a HashMap.
+            new SourceRule(method -> {
+                if (!Boolean.TRUE.equals(serializableDecider.apply(method.getClassReference()))) {
+                    return null;
                 }
-            }
-        }
-
-        // If a class implements readObject, the ObjectInputStream passed in is considered tainted
-        for (MethodReference.Handle method : methodMap.keySet()) {
-            if (Boolean.TRUE.equals(serializableDecider.apply(method.getClassReference()))) {
-                if (method.getName().equals("readObject") && method.getDesc().equals("(Ljava/io/ObjectInputStream;)V")) {
-                    addDiscoveredSource(new Source(method, 1));
+                if (method.getName().equals("hashCode") && method.getDesc().equals("()I")) {
+                    return new int[]{0};
                 }
-            }
-        }
+                if (method.getName().equals("equals") && method.getDesc().equals("(Ljava/lang/Object;)Z")) {
+                    return new int[]{0, 1};
+                }
+                return null;
+            }, "hashCode", "equals"),
+            // Using a comparator proxy, we can jump into the call() / doCall() method of any groovy Closure and all the
+            // args are tainted.
+            // https://github.com/frohoff/ysoserial/blob/master/src/main/java/ysoserial/payloads/Groovy1.java
+            new SourceRule(method -> {
+                if (!Boolean.TRUE.equals(serializableDecider.apply(method.getClassReference()))
+                    || !inheritanceMap.isSubclassOf(method.getClassReference(), new ClassReference.Handle("groovy/lang/Closure"))) {
+                    return null;
+                }
+                return IntStream.rangeClosed(0, Type.getArgumentTypes(method.getDesc()).length).toArray();
+            }, "call", "doCall"));
+        List<List<Source>> ruleSources = matchSourceRules(methodMap.keySet(), rules);
+
+        addDiscoveredSources(ruleSources.get(0));
+        addDiscoveredSources(ruleSources.get(1));
 
         // Using the proxy trick, anything extending serializable and invocation handler is tainted.
         for (ClassReference.Handle clazz : classMap.keySet()) {
@@ -50,40 +75,13 @@ public class SimpleSourceDiscovery extends SourceDiscovery {
             }
         }
 
-        // hashCode() or equals() are accessible entry points using standard tricks of putting those objects
-        // into a HashMap.
-        for (MethodReference.Handle method : methodMap.keySet()) {
-            if (Boolean.TRUE.equals(serializableDecider.apply(method.getClassReference()))) {
-                if (method.getName().equals("hashCode") && method.getDesc().equals("()I")) {
-                    addDiscoveredSource(new Source(method, 0));
-                }
-                if (method.getName().equals("equals") && method.getDesc().equals("(Ljava/lang/Object;)Z")) {
-                    addDiscoveredSource(new Source(method, 0));
-                    addDiscoveredSource(new Source(method, 1));
-                }
-            }
-        }
-
-        // Using a comparator proxy, we can jump into the call() / doCall() method of any groovy Closure and all the
-        // args are tainted.
-        // https://github.com/frohoff/ysoserial/blob/master/src/main/java/ysoserial/payloads/Groovy1.java
-        for (MethodReference.Handle method : methodMap.keySet()) {
-            if (Boolean.TRUE.equals(serializableDecider.apply(method.getClassReference()))
-                    && inheritanceMap.isSubclassOf(method.getClassReference(), new ClassReference.Handle("groovy/lang/Closure"))
-                    && (method.getName().equals("call") || method.getName().equals("doCall"))) {
-
-                addDiscoveredSource(new Source(method, 0));
-                Type[] methodArgs = Type.getArgumentTypes(method.getDesc());
-                for (int i = 0; i < methodArgs.length; i++) {
-                    addDiscoveredSource(new Source(method, i + 1));
-                }
-            }
-        }
+        addDiscoveredSources(ruleSources.get(2));
+        addDiscoveredSources(ruleSources.get(3));
     }
 
     public static void main(String[] args) throws Exception {
         SourceDiscovery sourceDiscovery = new SimpleSourceDiscovery();
-        sourceDiscovery.discover();
+        sourceDiscovery.discover(new JavaDeserializationConfig());
         sourceDiscovery.save();
     }
 }
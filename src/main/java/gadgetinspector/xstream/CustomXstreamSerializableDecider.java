@@ -4,6 +4,7 @@ import gadgetinspector.SerializableDecider;
 import gadgetinspector.data.ClassReference;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Represents a custom serializability decider that implements some complex constraints in one application that was
@@ -11,7 +12,7 @@ import java.util.*;
  * still insufficient.
  */
 public class CustomXstreamSerializableDecider implements SerializableDecider {
-    private final Map<ClassReference.Handle, Boolean> serializableMap = new HashMap<>();
+    private final Map<ClassReference.Handle, Boolean> serializableMap = new ConcurrentHashMap<>();
     private final Map<ClassReference.Handle, ClassReference> classMap;
     private final Map<ClassReference.Handle, Set<ClassReference.Handle>> inheritanceMap;
 